@@ -0,0 +1,48 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+plugins {
+    `java-library`
+    id("me.champeau.gradle.jmh") version "0.5.0"
+}
+
+repositories {
+    mavenCentral()
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+description = "DataStax junitpytest - JMH benchmarks (not published)"
+
+dependencies {
+    // The benchmarks live in the packages of the benchmarked classes to access package-private code.
+    // The engine's regular jar is disabled, so use the shadow-jar, which includes :common
+    jmhImplementation(project(":pytest-junit-engine", "shadowRuntimeElements"))
+}
+
+jmh {
+    jmhVersion = "1.23"
+    profilers = listOf("gc")
+    duplicateClassesStrategy = DuplicatesStrategy.WARN
+    // Machine readable results to compare the results of different commits, e.g. using https://jmh.morethan.io/
+    // -Pjmh.results=<file> writes the results to another file, -Pjmh.include=<regex> runs only some benchmarks.
+    resultFormat = "JSON"
+    resultsFile = project.findProperty("jmh.results")?.let { file(it) } ?: buildDir.resolve("reports/jmh/results.json")
+    project.findProperty("jmh.include")?.let { include = listOf(it.toString()) }
+}
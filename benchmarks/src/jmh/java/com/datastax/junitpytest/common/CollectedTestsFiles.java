@@ -0,0 +1,86 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.common;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Produces collected-tests files in the format written by the {@code PytestDiscovery} task, resembling a large
+ * test suite with parameterized tests.
+ */
+public final class CollectedTestsFiles
+{
+    public static final int TESTS_PER_CLASS = 50;
+
+    private CollectedTestsFiles()
+    {
+    }
+
+    /**
+     * The name of the test class of the given test, for a collected-tests file with {@code tests} tests.
+     */
+    public static String testClass(int test)
+    {
+        int cls = test / TESTS_PER_CLASS;
+        return "dtest.module_" + (cls / 4) + "_test.TestSomething" + cls;
+    }
+
+    /**
+     * Collected-tests lines, {@value #TESTS_PER_CLASS} tests per class, 4 classes per module, half of the tests
+     * are parameterized.
+     */
+    public static List<String> lines(int tests)
+    {
+        List<String> lines = new ArrayList<>(tests);
+        for (int i = 0; i < tests; i++)
+        {
+            int cls = i / TESTS_PER_CLASS;
+            String method = "test_method_" + (i % TESTS_PER_CLASS / 2);
+            String test = i % 2 == 0 ? method : method + "[param-" + i + "-some_value]";
+            lines.add("dtest/module_" + (cls / 4) + "_test.py::TestSomething" + cls + "::" + method + "::" + test);
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the collected-tests file and, if {@code withIndex} is set, its binary index.
+     */
+    public static void write(Path file, int tests, boolean withIndex) throws IOException
+    {
+        List<String> lines = lines(tests);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8))
+        {
+            for (String line : lines)
+            {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        if (withIndex)
+        {
+            List<PytestCollectEntry> entries = new ArrayList<>(tests);
+            for (String line : lines)
+                entries.add(PytestCollectEntry.parse(line));
+            CollectedTestsIndex.write(CollectedTestsIndex.indexFileFor(file), entries, file);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.discovery;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.junitpytest.common.CollectedTestsFiles;
+import com.datastax.junitpytest.common.IOUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads a collected-tests file and resolves a few test classes, like a test JVM that runs a subset of the tests,
+ * once by parsing the text file and once using the binary index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PytestDiscovererBenchmark
+{
+    @Param({"100000", "1000000"})
+    public int tests;
+
+    /**
+     * Number of test classes resolved after reading the collected tests.
+     */
+    @Param({"10"})
+    public int lookups;
+
+    private Path dir;
+    private Path textFile;
+    private Path indexedFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        dir = Files.createTempDirectory("pytest-discoverer-benchmark");
+        textFile = dir.resolve("text").resolve("collected-tests.txt");
+        indexedFile = dir.resolve("indexed").resolve("collected-tests.txt");
+        Files.createDirectories(textFile.getParent());
+        Files.createDirectories(indexedFile.getParent());
+        CollectedTestsFiles.write(textFile, tests, false);
+        CollectedTestsFiles.write(indexedFile, tests, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        IOUtil.deltree(dir);
+    }
+
+    @Benchmark
+    public void readText(Blackhole bh)
+    {
+        read(textFile, bh);
+    }
+
+    @Benchmark
+    public void readIndexed(Blackhole bh)
+    {
+        read(indexedFile, bh);
+    }
+
+    private void read(Path file, Blackhole bh)
+    {
+        PytestDiscoverer discoverer = new PytestDiscoverer();
+        discoverer.readCollectedTests(file);
+        int step = Math.max(1, tests / lookups);
+        for (int i = 0; i < tests; i += step)
+            bh.consume(discoverer.testClassInfo(CollectedTestsFiles.testClass(i)));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decodes a stream of {@code runtest_logstart}/{@code runtest_logfinish} messages of passed tests, which
+ * only look at the result and the test identifiers, but not at the captured output.
+ * <p>
+ * Run with the {@code gc} profiler (default for the {@code jmh} task) to compare the allocation rates of
+ * {@link InboundHandler} and {@link LegacyInboundHandler}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InboundHandlerBenchmark
+{
+    @Param({"200"})
+    public int tests;
+
+    @Param({"100", "10000", "100000"})
+    public int capturedBytes;
+
+    private byte[] stream;
+    private byte[] binaryStream;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        stream = ProtocolStreams.session(tests, capturedBytes, false);
+        binaryStream = ProtocolStreams.session(tests, capturedBytes, true);
+    }
+
+    @Benchmark
+    public void inboundHandler(Blackhole bh) throws IOException
+    {
+        decode(stream, bh);
+    }
+
+    @Benchmark
+    public void inboundHandlerBinary(Blackhole bh) throws IOException
+    {
+        decode(binaryStream, bh);
+    }
+
+    private static void decode(byte[] stream, Blackhole bh) throws IOException
+    {
+        InboundHandler handler = new InboundHandler();
+        try (ReadableByteChannel input = Channels.newChannel(new ByteArrayInputStream(stream)))
+        {
+            Message message;
+            while ((message = handler.readMessage(input)) != null)
+            {
+                bh.consume(message.block("nodeid"));
+                bh.consume(message.block("result_category"));
+            }
+        }
+    }
+
+    @Benchmark
+    public void legacyInboundHandler(Blackhole bh) throws IOException
+    {
+        LegacyInboundHandler handler = new LegacyInboundHandler();
+        try (InputStream input = new BufferedInputStream(new ByteArrayInputStream(stream)))
+        {
+            Map<String, String> message;
+            while ((message = handler.readMessage(input)) != null)
+            {
+                bh.consume(message.get("nodeid"));
+                bh.consume(message.get("result_category"));
+            }
+        }
+    }
+}
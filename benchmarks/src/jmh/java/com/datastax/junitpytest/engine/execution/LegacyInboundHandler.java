@@ -0,0 +1,146 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * The byte-at-a-time implementation of {@link InboundHandler} that reads header lines via
+ * {@link InputStream#read()} and copies every block into a new {@link String}, kept as the baseline for
+ * {@link InboundHandlerBenchmark}.
+ */
+final class LegacyInboundHandler
+{
+    final byte[] iobuf = new byte[8192];
+
+    enum State
+    {
+        EXPECT_START(true),
+        EXPECT_BLOCK_START(true),
+        READING_BLOCK(false),
+        POST_BLOCK_EOL(true),
+        EXPECT_END(true);
+
+        final boolean line;
+
+        State(boolean line) {this.line = line;}
+    }
+
+    private State state = State.EXPECT_START;
+
+    private final ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
+
+    private int remainingBlocks;
+    private String currentBlockName;
+    private int currentBlockRemaining;
+
+    private String currentMessage;
+    private Map<String, String> current;
+
+    Map<String, String> readMessage(InputStream input) throws IOException
+    {
+        while (true)
+        {
+            if (state.line)
+            {
+                int c = input.read();
+                if (c == -1)
+                    return endOfStream();
+
+                if (c == 10)
+                {
+                    String ln = new String(byteBuffer.toByteArray(), StandardCharsets.UTF_8);
+                    byteBuffer.reset();
+                    Map<String, String> message = handleLine(ln);
+                    if (message != null)
+                        return message;
+                }
+                else
+                {
+                    byteBuffer.write(c);
+                }
+            }
+            else
+            {
+                if (currentBlockRemaining > 0)
+                {
+                    int rd = input.read(iobuf, 0, Math.min(currentBlockRemaining, iobuf.length));
+                    if (rd == -1)
+                        return endOfStream();
+                    byteBuffer.write(iobuf, 0, rd);
+                    currentBlockRemaining -= rd;
+                }
+                if (currentBlockRemaining == 0)
+                {
+                    current.put(currentBlockName, new String(byteBuffer.toByteArray(), StandardCharsets.UTF_8));
+                    byteBuffer.reset();
+                    remainingBlocks--;
+                    state = State.POST_BLOCK_EOL;
+                }
+            }
+        }
+    }
+
+    private Map<String, String> endOfStream() throws EOFException
+    {
+        if (state != State.EXPECT_START || byteBuffer.size() > 0)
+            throw new EOFException("Unexpected end of pytest output in state " + state);
+        return null;
+    }
+
+    private Map<String, String> handleLine(String line)
+    {
+        switch (state)
+        {
+            case EXPECT_START:
+                if (!line.startsWith("*** START/"))
+                    throw new IllegalStateException("Expected '*** START/...', but got '" + line + "'");
+                StringTokenizer lineTokens = new StringTokenizer(line, "/");
+                lineTokens.nextToken();
+                currentMessage = lineTokens.nextToken();
+                current = new HashMap<>();
+                remainingBlocks = Integer.parseInt(lineTokens.nextToken());
+                state = remainingBlocks > 0 ? State.EXPECT_BLOCK_START : State.EXPECT_END;
+                break;
+            case EXPECT_BLOCK_START:
+                int i = line.indexOf(": ");
+                currentBlockName = line.substring(0, i);
+                currentBlockRemaining = Integer.parseInt(line.substring(i + 2));
+                state = State.READING_BLOCK;
+                break;
+            case POST_BLOCK_EOL:
+                if (!line.isEmpty())
+                    throw new IllegalStateException("Expected empty line, but got '" + line + "'");
+                state = remainingBlocks > 0 ? State.EXPECT_BLOCK_START : State.EXPECT_END;
+                break;
+            case EXPECT_END:
+                if (!"*** END".equals(line))
+                    throw new IllegalStateException("Expected '*** END', but got '" + line + "'");
+                state = State.EXPECT_START;
+                Map<String, String> r = current;
+                current = null;
+                return r;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Produces protocol streams in the same formats as {@code GradlePlugin.to_junit} in
+ * {@code junitpytest/gradle.py}, resembling a recorded stream of a pytest session.
+ */
+final class ProtocolStreams
+{
+    private ProtocolStreams()
+    {
+    }
+
+    /**
+     * A session with {@code tests} tests, each test emits a {@code runtest_logstart} and a
+     * {@code runtest_logfinish} message. The {@code runtest_logfinish} messages contain captured output
+     * blocks of {@code capturedBytes} bytes each.
+     *
+     * @param binary whether to use the binary framing ({@code --gradle-framing=binary}) or the text framing
+     */
+    static byte[] session(int tests, int capturedBytes, boolean binary)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<String> names = null;
+        if (binary)
+        {
+            names = new ArrayList<>();
+            write(out, "*** BINARY/1\n");
+        }
+
+        Map<String, String> blocks = new LinkedHashMap<>();
+        blocks.put("platform", "linux");
+        blocks.put("info", "platform linux -- Python 3.8.2, pytest-5.4.3, py-1.8.1, pluggy-0.13.1");
+        message(out, names, "sessionstart", blocks);
+
+        String captured = captured(capturedBytes);
+        for (int i = 0; i < tests; i++)
+        {
+            String nodeid = "dtest/some_module_test.py::TestSomeModule::test_something[param-" + i + "]";
+            String domain = "TestSomeModule.test_something[param-" + i + "]";
+
+            blocks.clear();
+            blocks.put("nodeid", nodeid);
+            blocks.put("fspath", "dtest/some_module_test.py");
+            blocks.put("line_number", "42");
+            blocks.put("domain", domain);
+            message(out, names, "runtest_logstart", blocks);
+
+            blocks.clear();
+            blocks.put("result_category", "passed");
+            blocks.put("result_word", "PASSED");
+            blocks.put("nodeid", nodeid);
+            blocks.put("fspath", "dtest/some_module_test.py");
+            blocks.put("line_number", "42");
+            blocks.put("domain", domain);
+            blocks.put("Captured stdout setup", captured);
+            blocks.put("Captured log setup", captured);
+            blocks.put("Captured stdout call", captured);
+            blocks.put("Captured log call", captured);
+            blocks.put("Captured log teardown", captured);
+            message(out, names, "runtest_logfinish", blocks);
+        }
+
+        blocks.clear();
+        blocks.put("exitstatus", "0");
+        message(out, names, "sessionfinish", blocks);
+
+        return out.toByteArray();
+    }
+
+    private static String captured(int bytes)
+    {
+        StringBuilder sb = new StringBuilder(bytes);
+        int line = 0;
+        while (sb.length() < bytes)
+        {
+            sb.append("INFO  [main] 2020-06-01 12:34:56,789 Node.java:123 - log line #").append(line++).append('\n');
+        }
+        sb.setLength(bytes);
+        return sb.toString();
+    }
+
+    private static void message(ByteArrayOutputStream out, List<String> names, String message, Map<String, String> blocks)
+    {
+        if (names != null)
+        {
+            binaryMessage(out, names, message, blocks);
+            return;
+        }
+
+        write(out, "*** START/" + message + "/" + blocks.size() + "\n");
+        for (Map.Entry<String, String> block : blocks.entrySet())
+        {
+            byte[] utf = block.getValue().getBytes(StandardCharsets.UTF_8);
+            write(out, block.getKey() + ": " + utf.length + "\n");
+            out.write(utf, 0, utf.length);
+            write(out, "\n");
+        }
+        write(out, "*** END\n");
+    }
+
+    private static void binaryMessage(ByteArrayOutputStream out, List<String> names, String message, Map<String, String> blocks)
+    {
+        int messageId = binaryName(out, names, message);
+        int[] blockIds = new int[blocks.size()];
+        int i = 0;
+        for (String block : blocks.keySet())
+            blockIds[i++] = binaryName(out, names, block);
+
+        out.write(InboundHandler.FRAME_MESSAGE);
+        varint(out, messageId);
+        varint(out, blocks.size());
+        i = 0;
+        for (String value : blocks.values())
+        {
+            byte[] utf = value.getBytes(StandardCharsets.UTF_8);
+            varint(out, blockIds[i++]);
+            varint(out, utf.length);
+            out.write(utf, 0, utf.length);
+        }
+    }
+
+    private static int binaryName(ByteArrayOutputStream out, List<String> names, String name)
+    {
+        int id = names.indexOf(name);
+        if (id == -1)
+        {
+            id = names.size();
+            names.add(name);
+            byte[] utf = name.getBytes(StandardCharsets.UTF_8);
+            out.write(InboundHandler.FRAME_NAME);
+            varint(out, utf.length);
+            out.write(utf, 0, utf.length);
+        }
+        return id;
+    }
+
+    private static void varint(ByteArrayOutputStream out, int value)
+    {
+        while ((value & ~0x7f) != 0)
+        {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void write(ByteArrayOutputStream out, String s)
+    {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.write(b, 0, b.length);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.junitpytest.common.PytestCollectEntry;
+import com.datastax.junitpytest.engine.PytestClassInfo;
+import com.datastax.junitpytest.engine.TestCaseDescriptor;
+import com.datastax.junitpytest.engine.TestClassDescriptor;
+import org.junit.platform.engine.ConfigurationParameters;
+import org.junit.platform.engine.EngineExecutionListener;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.reporting.ReportEntry;
+import org.junit.platform.engine.support.descriptor.EngineDescriptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Dispatches the events of a whole test session through a {@link TestHandler}, without decoding any messages,
+ * i.e. resolving the descriptors of the started tests and reporting them to the
+ * {@link EngineExecutionListener}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TestHandlerBenchmark
+{
+    @Param({"100", "2000"})
+    public int classes;
+
+    @Param({"50"})
+    public int testsPerClass;
+
+    private EngineDescriptor root;
+    private DescriptorIndex descriptorIndex;
+    private Testenv testenv;
+    private TestTimings timings;
+    private String[] nodeids;
+    private String[] fspaths;
+    private String[] domains;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        Map<String, String> config = new HashMap<>();
+        config.put("pytest.venv", "venv");
+        config.put("pytest.frozenRequirements", "frozen-requirements.txt");
+        config.put("pytest.pytestOutputs", "pytest-outputs");
+        config.put("pytest.cwd", ".");
+        config.put("pytest.exec.virtualenv", "virtualenv");
+        config.put("pytest.exec.python", "python3");
+        config.put("pytest.outputThreads", "0");
+        testenv = new Testenv(new ConfigurationParameters()
+        {
+            @Override
+            public Optional<String> get(String key)
+            {
+                return Optional.ofNullable(config.get(key));
+            }
+
+            @Override
+            public Optional<Boolean> getBoolean(String key)
+            {
+                return get(key).map(Boolean::valueOf);
+            }
+
+            @Override
+            public int size()
+            {
+                return config.size();
+            }
+        });
+        timings = TestTimings.load(null);
+
+        root = new EngineDescriptor(UniqueId.forEngine("pytest"), "pytest");
+        List<String> nodeids = new ArrayList<>();
+        List<String> fspaths = new ArrayList<>();
+        List<String> domains = new ArrayList<>();
+        for (int c = 0; c < classes; c++)
+        {
+            String file = "dtest/module_" + (c / 4) + "_test.py";
+            String cls = "TestSomething" + c;
+            PytestClassInfo info = null;
+            TestClassDescriptor classDescriptor = null;
+            for (int t = 0; t < testsPerClass; t++)
+            {
+                String test = "test_method_" + (t / 2) + "[param-" + t + "]";
+                PytestCollectEntry entry = PytestCollectEntry.parse(file + "::" + cls + "::test_method_" + (t / 2) + "::" + test);
+                if (info == null)
+                {
+                    info = PytestClassInfo.fromCollectEntry(entry);
+                    classDescriptor = TestClassDescriptor.createChild(root, info);
+                    root.addChild(classDescriptor);
+                }
+                info.addTest(entry.getMethod(), test);
+                classDescriptor.addChild(TestCaseDescriptor.createChild(classDescriptor, test));
+
+                nodeids.add(file + "::" + cls + "::" + test);
+                fspaths.add(file);
+                domains.add(cls + "." + test);
+            }
+        }
+        descriptorIndex = new DescriptorIndex(root);
+        this.nodeids = nodeids.toArray(new String[0]);
+        this.fspaths = fspaths.toArray(new String[0]);
+        this.domains = domains.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public void dispatch(Blackhole bh)
+    {
+        EngineExecutionListener listener = new EngineExecutionListener()
+        {
+            @Override
+            public void dynamicTestRegistered(TestDescriptor testDescriptor)
+            {
+                bh.consume(testDescriptor);
+            }
+
+            @Override
+            public void executionSkipped(TestDescriptor testDescriptor, String reason)
+            {
+                bh.consume(reason);
+            }
+
+            @Override
+            public void executionStarted(TestDescriptor testDescriptor)
+            {
+                bh.consume(testDescriptor);
+            }
+
+            @Override
+            public void executionFinished(TestDescriptor testDescriptor, TestExecutionResult testExecutionResult)
+            {
+                bh.consume(testExecutionResult);
+            }
+
+            @Override
+            public void reportingEntryPublished(TestDescriptor testDescriptor, ReportEntry entry)
+            {
+                bh.consume(entry);
+            }
+        };
+
+        TestHandler testHandler = new TestHandler(root, listener, testenv, timings, descriptorIndex, new FailureBudget(testenv));
+        testHandler.processStart();
+        testHandler.sessionStarted();
+        for (int i = 0; i < nodeids.length; i++)
+        {
+            testHandler.executionStarted(nodeids[i], fspaths[i], domains[i]);
+            testHandler.executionFinished(TestExecutionResult.successful());
+        }
+        testHandler.sessionFinished(TestExecutionResult.successful());
+        testHandler.processFinished();
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Binary index of the collected tests, written next to the text file with the collected tests, so test JVMs only
+ * need to decode the test classes they actually run.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ *     header:       int magic, int version, long length-of-text-file, long last-modified-millis-of-text-file,
+ *                   int string-count,
+ *                   int class-count, int strings-offset, int tests-offset
+ *     string table: int offset (relative to strings-offset) per string
+ *     class table:  per class (sorted by the UTF-8 bytes of the fully qualified class name): int class-name-string,
+ *                   int file-string, int simple-class-name-string, int tests-offset (relative to tests-offset),
+ *                   int test-count, int number-of-classes-in-the-same-file
+ *     strings:      per string: varint length, UTF-8 bytes
+ *     tests:        per test: varint length of the prefix shared with the class' previous test, varint suffix
+ *                   length, UTF-8 bytes of the suffix
+ * </pre>
+ * Strings (file names, class names) are interned, the tests of each class are prefix compressed.
+ */
+public final class CollectedTestsIndex
+{
+    private static final int MAGIC = 0x4a505449;
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = 40;
+    private static final int CLASS_ENTRY_SIZE = 24;
+
+    private final ByteBuffer buffer;
+    private final int stringCount;
+    private final int classCount;
+    private final int classTableOffset;
+    private final int stringsOffset;
+    private final int testsOffset;
+
+    private CollectedTestsIndex(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        this.stringCount = buffer.getInt(24);
+        this.classCount = buffer.getInt(28);
+        this.stringsOffset = buffer.getInt(32);
+        this.testsOffset = buffer.getInt(36);
+        this.classTableOffset = HEADER_SIZE + 4 * stringCount;
+    }
+
+    /**
+     * The file name of the index for the given text file with the collected tests.
+     */
+    public static Path indexFileFor(Path collectedTestsFile)
+    {
+        return collectedTestsFile.resolveSibling(collectedTestsFile.getFileName() + ".idx");
+    }
+
+    /**
+     * Memory-maps the index for {@code collectedTestsFile}. The index belongs to the text file, if the length and the
+     * last-modified time of the text file match the ones recorded in the index. Both are checked without reading
+     * the text file, which is only rewritten when the collected tests change.
+     *
+     * @return the index or {@code null}, if there is no index or if it does not belong to the current
+     * {@code collectedTestsFile}
+     */
+    public static CollectedTestsIndex open(Path collectedTestsFile) throws IOException
+    {
+        Path indexFile = indexFileFor(collectedTestsFile);
+        if (!Files.isRegularFile(indexFile))
+            return null;
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ))
+        {
+            if (channel.size() < HEADER_SIZE)
+                return null;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // The last-modified time detects changes that keep the length, e.g. renaming a test to a name of the same length
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != Files.size(collectedTestsFile)
+            || buffer.getLong(16) != Files.getLastModifiedTime(collectedTestsFile).toMillis())
+            return null;
+        return new CollectedTestsIndex(buffer);
+    }
+
+    public int getClassCount()
+    {
+        return classCount;
+    }
+
+    /**
+     * Looks up the test class with the given fully qualified class name.
+     *
+     * @return the test class or {@code null}, if the class is not in the index
+     */
+    public TestClass lookup(String fullyQualifiedClassName)
+    {
+        byte[] key = fullyQualifiedClassName.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = classCount - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int entry = classTableOffset + mid * CLASS_ENTRY_SIZE;
+            int cmp = compareString(buffer.getInt(entry), key);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return new TestClass(fullyQualifiedClassName,
+                                     string(buffer.getInt(entry + 4)),
+                                     string(buffer.getInt(entry + 8)),
+                                     tests(buffer.getInt(entry + 12), buffer.getInt(entry + 16)),
+                                     buffer.getInt(entry + 20));
+        }
+        return null;
+    }
+
+    private int compareString(int id, byte[] key)
+    {
+        int pos = stringsOffset + buffer.getInt(HEADER_SIZE + 4 * id);
+        long lenAndPos = readVarint(buffer, pos);
+        int len = (int) (lenAndPos >>> 32);
+        pos = (int) lenAndPos;
+        int n = Math.min(len, key.length);
+        for (int i = 0; i < n; i++)
+        {
+            int cmp = (buffer.get(pos + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0)
+                return cmp;
+        }
+        return len - key.length;
+    }
+
+    private String string(int id)
+    {
+        int pos = stringsOffset + buffer.getInt(HEADER_SIZE + 4 * id);
+        long lenAndPos = readVarint(buffer, pos);
+        byte[] bytes = new byte[(int) (lenAndPos >>> 32)];
+        ByteBuffer dup = buffer.duplicate();
+        dup.position((int) lenAndPos);
+        dup.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<String> tests(int offset, int count)
+    {
+        List<String> tests = new ArrayList<>(count);
+        ByteBuffer dup = buffer.duplicate();
+        int pos = testsOffset + offset;
+        byte[] previous = new byte[0];
+        for (int i = 0; i < count; i++)
+        {
+            long sharedAndPos = readVarint(buffer, pos);
+            int shared = (int) (sharedAndPos >>> 32);
+            long suffixAndPos = readVarint(buffer, (int) sharedAndPos);
+            int suffix = (int) (suffixAndPos >>> 32);
+            byte[] test = Arrays.copyOf(previous, shared + suffix);
+            dup.position((int) suffixAndPos);
+            dup.get(test, shared, suffix);
+            pos = (int) suffixAndPos + suffix;
+            tests.add(new String(test, StandardCharsets.UTF_8));
+            previous = test;
+        }
+        return tests;
+    }
+
+    /**
+     * Writes the index for the given collected tests.
+     *
+     * @param entries            the collected tests in the order of the text file
+     * @param collectedTestsFile the text file, its length and last-modified time are used to detect an outdated index
+     */
+    public static void write(Path indexFile, Collection<PytestCollectEntry> entries, Path collectedTestsFile) throws IOException
+    {
+        Map<String, List<PytestCollectEntry>> classes = new LinkedHashMap<>();
+        for (PytestCollectEntry entry : entries)
+            classes.computeIfAbsent(entry.getFullyQualifiedClassName(), c -> new ArrayList<>()).add(entry);
+        Map<String, Integer> classesPerFile = new HashMap<>();
+        for (List<PytestCollectEntry> classEntries : classes.values())
+            classesPerFile.merge(classEntries.get(0).getFile(), 1, Integer::sum);
+
+        Map<String, Integer> stringIds = new HashMap<>();
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        List<Integer> stringOffsets = new ArrayList<>();
+        ByteArrayOutputStream tests = new ByteArrayOutputStream();
+
+        // sorted by the UTF-8 bytes of the class name for the binary search in lookup()
+        Map<byte[], int[]> classTable = new TreeMap<>(CollectedTestsIndex::compareUnsigned);
+        for (Map.Entry<String, List<PytestCollectEntry>> cls : classes.entrySet())
+        {
+            PytestCollectEntry first = cls.getValue().get(0);
+            int[] classEntry = new int[]{
+            intern(cls.getKey(), stringIds, stringOffsets, strings),
+            intern(first.getFile(), stringIds, stringOffsets, strings),
+            intern(first.getSimpleClassName(), stringIds, stringOffsets, strings),
+            tests.size(),
+            cls.getValue().size(),
+            classesPerFile.get(first.getFile())
+            };
+            classTable.put(cls.getKey().getBytes(StandardCharsets.UTF_8), classEntry);
+
+            byte[] previous = new byte[0];
+            for (PytestCollectEntry entry : cls.getValue())
+            {
+                byte[] test = entry.getTest().getBytes(StandardCharsets.UTF_8);
+                int shared = 0;
+                int n = Math.min(previous.length, test.length);
+                while (shared < n && previous[shared] == test[shared])
+                    shared++;
+                writeVarint(tests, shared);
+                writeVarint(tests, test.length - shared);
+                tests.write(test, shared, test.length - shared);
+                previous = test;
+            }
+        }
+        int stringsOffset = HEADER_SIZE + 4 * stringOffsets.size() + CLASS_ENTRY_SIZE * classTable.size();
+        int testsOffset = stringsOffset + strings.size();
+        ByteBuffer buffer = ByteBuffer.allocate(testsOffset + tests.size());
+        buffer.putInt(MAGIC)
+              .putInt(VERSION)
+              .putLong(Files.size(collectedTestsFile))
+              .putLong(Files.getLastModifiedTime(collectedTestsFile).toMillis())
+              .putInt(stringOffsets.size())
+              .putInt(classTable.size())
+              .putInt(stringsOffset)
+              .putInt(testsOffset);
+        for (int offset : stringOffsets)
+            buffer.putInt(offset);
+        for (int[] classEntry : classTable.values())
+            for (int i : classEntry)
+                buffer.putInt(i);
+        buffer.put(strings.toByteArray());
+        buffer.put(tests.toByteArray());
+
+        Path tmp = Files.createTempFile(indexFile.toAbsolutePath().getParent(), indexFile.getFileName().toString(), ".tmp");
+        Files.write(tmp, buffer.array());
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int intern(String s, Map<String, Integer> stringIds, List<Integer> stringOffsets, ByteArrayOutputStream strings)
+    {
+        return stringIds.computeIfAbsent(s, str -> {
+            stringOffsets.add(strings.size());
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            writeVarint(strings, bytes.length);
+            strings.write(bytes, 0, bytes.length);
+            return stringOffsets.size() - 1;
+        });
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value)
+    {
+        while ((value & ~0x7f) != 0)
+        {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads the unsigned LEB128 varint at {@code pos}, returns the value in the upper and the position after the
+     * varint in the lower 32 bits.
+     */
+    private static long readVarint(ByteBuffer buffer, int pos)
+    {
+        int value = 0;
+        int shift = 0;
+        while (true)
+        {
+            byte b = buffer.get(pos++);
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return ((long) value << 32) | pos;
+            shift += 7;
+        }
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b)
+    {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++)
+        {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0)
+                return cmp;
+        }
+        return a.length - b.length;
+    }
+
+    public static final class TestClass
+    {
+        private final String fullyQualifiedClassName;
+        private final String file;
+        private final String simpleClassName;
+        private final List<String> tests;
+        private final int moduleClassCount;
+
+        TestClass(String fullyQualifiedClassName, String file, String simpleClassName, List<String> tests, int moduleClassCount)
+        {
+            this.fullyQualifiedClassName = fullyQualifiedClassName;
+            this.file = file;
+            this.simpleClassName = simpleClassName;
+            this.tests = tests;
+            this.moduleClassCount = moduleClassCount;
+        }
+
+        public String getFullyQualifiedClassName()
+        {
+            return fullyQualifiedClassName;
+        }
+
+        public String getFile()
+        {
+            return file;
+        }
+
+        public String getSimpleClassName()
+        {
+            return simpleClassName;
+        }
+
+        /**
+         * The tests of this class in the order of the collected tests file.
+         */
+        public List<String> getTests()
+        {
+            return tests;
+        }
+
+        /**
+         * Number of collected test classes in the same file (module).
+         */
+        public int getModuleClassCount()
+        {
+            return moduleClassCount;
+        }
+    }
+}
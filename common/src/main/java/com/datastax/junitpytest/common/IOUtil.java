@@ -16,20 +16,64 @@
 package com.datastax.junitpytest.common;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public final class IOUtil
 {
+    private static final boolean MAC_OS = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("mac");
+
+    /**
+     * How output files of tests end up in the pytest-outputs directory. All modes fall back to {@link #COPY}, if
+     * the operation is not possible.
+     */
+    public enum OutputMode
+    {
+        /**
+         * Copy the files byte by byte.
+         */
+        COPY,
+        /**
+         * Create hard links to the files, only works on the same file system. Note that a later modification of a
+         * file in the working directory is visible in the pytest-outputs directory.
+         */
+        HARDLINK,
+        /**
+         * Create copy-on-write clones of the files using {@code cp}, where the file system supports it (e.g.
+         * Btrfs, XFS, APFS).
+         */
+        REFLINK,
+        /**
+         * Move (rename) the files and directories, only works on the same file system.
+         */
+        MOVE;
+
+        public static OutputMode parse(String mode)
+        {
+            return valueOf(mode.toUpperCase(Locale.ROOT));
+        }
+    }
+
     public static void copyOuptuts(Path pytestOutputs, Path workingDirectory, String outputs, String testClass, String testCase)
     {
+        copyOuptuts(pytestOutputs, workingDirectory, outputs, testClass, testCase, OutputMode.COPY);
+    }
+
+    public static void copyOuptuts(Path pytestOutputs, Path workingDirectory, String outputs, String testClass, String testCase, OutputMode mode)
+    {
+        String[] outputList = outputs.split("\n");
+        Jfr.Event event = Jfr.outputs(testClass, testCase, outputList.length, mode);
         Path pytestOutput = pytestOutputs.resolve(testClass).resolve(testCase);
         deltree(pytestOutput);
-        for (String output : outputs.split("\n"))
+        for (String output : outputList)
         {
             try
             {
@@ -37,11 +81,11 @@ public final class IOUtil
                 if (Files.isDirectory(source))
                 {
                     for (Path src : listDirectory(source))
-                        copyOutput(pytestOutput, src);
+                        copyOutput(pytestOutput, src, mode);
                 }
                 else
                 {
-                    copyOutput(pytestOutput, source);
+                    copyOutput(pytestOutput, source, mode);
                 }
             }
             catch (IOException e)
@@ -50,6 +94,7 @@ public final class IOUtil
                 e.printStackTrace();
             }
         }
+        event.commit();
     }
 
     public static void deltree(Path path)
@@ -71,23 +116,106 @@ public final class IOUtil
     }
 
     public static void copyOutput(Path target, Path source) throws IOException
+    {
+        copyOutput(target, source, OutputMode.COPY);
+    }
+
+    public static void copyOutput(Path target, Path source, OutputMode mode) throws IOException
     {
         Path dest = target.resolve(source.getFileName().toString());
+        if (mode == OutputMode.MOVE && move(source, dest))
+            return;
+        if (mode == OutputMode.REFLINK)
+        {
+            if (reflink(source, dest))
+                return;
+            // Don't try to clone each file of a directory separately
+            mode = OutputMode.COPY;
+        }
+
         if (Files.isDirectory(source))
         {
             List<Path> dirContent = listDirectory(source);
             for (Path c : dirContent)
-                copyOutput(dest, c);
+                copyOutput(dest, c, mode);
         }
         else
         {
             Path dir = dest.getParent();
             if (!Files.isDirectory(dir))
                 Files.createDirectories(dir);
+            if (mode == OutputMode.HARDLINK && link(source, dest))
+                return;
             Files.copy(source, dest, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
+    private static boolean move(Path source, Path dest)
+    {
+        if (Files.exists(dest, LinkOption.NOFOLLOW_LINKS))
+            return false;
+        try
+        {
+            Files.createDirectories(dest.getParent());
+            Files.move(source, dest, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+        catch (IOException e)
+        {
+            // most likely a different file system
+            return false;
+        }
+    }
+
+    private static boolean link(Path source, Path dest)
+    {
+        try
+        {
+            Files.deleteIfExists(dest);
+            Files.createLink(dest, source);
+            return true;
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            // most likely a different file system
+            return false;
+        }
+    }
+
+    private static boolean reflink(Path source, Path dest)
+    {
+        if (Files.exists(dest, LinkOption.NOFOLLOW_LINKS))
+            return false;
+        List<String> command = MAC_OS
+                               ? Arrays.asList("cp", "-c", "-R", "-p", source.toString(), dest.toString())
+                               : Arrays.asList("cp", "-R", "-p", "--reflink=auto", source.toString(), dest.toString());
+        try
+        {
+            Files.createDirectories(dest.getParent());
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (InputStream in = process.getInputStream())
+            {
+                byte[] discard = new byte[1024];
+                while (in.read(discard) != -1)
+                {
+                    // just drain the output
+                }
+            }
+            if (process.waitFor() == 0)
+                return true;
+        }
+        catch (IOException e)
+        {
+            // no usable cp
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        deltree(dest);
+        return false;
+    }
+
     public static List<Path> listDirectory(Path source) throws IOException
     {
         List<Path> dirContent;
@@ -0,0 +1,114 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.common;
+
+import java.nio.file.Path;
+
+/**
+ * Custom JDK Flight Recorder events, recorded when a recording is active, e.g. when the test JVM is started with
+ * {@code -XX:StartFlightRecording}. All events are no-ops on JVMs without the {@code jdk.jfr} API.
+ * <p>
+ * Each method starts an event, {@link Event#commit()} ends and records it.
+ */
+public final class Jfr
+{
+    /**
+     * A started event.
+     */
+    public interface Event
+    {
+        void commit();
+    }
+
+    /**
+     * A started event for a pytest test case.
+     */
+    public interface TestEvent
+    {
+        /**
+         * Records the durations of the setup, call and teardown phases as reported by pytest, in nanoseconds.
+         */
+        void phases(long setupNanos, long callNanos, long teardownNanos);
+
+        void commit(String outcome);
+    }
+
+    private static final Event NOOP = () -> {};
+    private static final TestEvent NOOP_TEST = new TestEvent()
+    {
+        @Override
+        public void phases(long setupNanos, long callNanos, long teardownNanos)
+        {
+        }
+
+        @Override
+        public void commit(String outcome)
+        {
+        }
+    };
+
+    private static final boolean AVAILABLE = available();
+
+    private Jfr()
+    {
+    }
+
+    private static boolean available()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event");
+            return JfrEvents.available();
+        }
+        catch (ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * An operation on the virtual environment, like checking or creating it or installing requirements.
+     */
+    public static Event venv(String operation, Path venvDir)
+    {
+        return AVAILABLE ? JfrEvents.venv(operation, venvDir) : NOOP;
+    }
+
+    /**
+     * Collecting the output files registered by a test case.
+     */
+    public static Event outputs(String testClass, String testCase, int outputs, IOUtil.OutputMode mode)
+    {
+        return AVAILABLE ? JfrEvents.outputs(testClass, testCase, outputs, mode) : NOOP;
+    }
+
+    /**
+     * A phase of a {@code pytest} process, either {@code process} (the whole lifetime), {@code startup}
+     * (until the test session has been started) or {@code collection} (until the first test case is started).
+     */
+    public static Event pytest(String phase, String command)
+    {
+        return AVAILABLE ? JfrEvents.pytest(phase, command) : NOOP;
+    }
+
+    /**
+     * A pytest test case.
+     */
+    public static TestEvent test(String testClass, String testCase)
+    {
+        return AVAILABLE ? JfrEvents.test(testClass, testCase) : NOOP_TEST;
+    }
+}
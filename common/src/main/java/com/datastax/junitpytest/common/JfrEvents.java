@@ -0,0 +1,159 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.common;
+
+import java.nio.file.Path;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The actual JFR events behind {@link Jfr}, only loaded when the {@code jdk.jfr} API is present.
+ */
+final class JfrEvents
+{
+    private static final String CATEGORY = "junitpytest";
+
+    private JfrEvents()
+    {
+    }
+
+    static boolean available()
+    {
+        return FlightRecorder.isAvailable();
+    }
+
+    @Name("com.datastax.junitpytest.VirtualEnv")
+    @Label("Virtual Environment")
+    @Description("Operation on the virtual environment used to run pytest")
+    @Category(CATEGORY)
+    static final class VenvEvent extends Event
+    {
+        @Label("Operation")
+        String operation;
+        @Label("Directory")
+        String directory;
+    }
+
+    @Name("com.datastax.junitpytest.Outputs")
+    @Label("Test Outputs")
+    @Description("Collecting the output files registered by a test case")
+    @Category(CATEGORY)
+    static final class OutputsEvent extends Event
+    {
+        @Label("Test Class")
+        String testClass;
+        @Label("Test Case")
+        String testCase;
+        @Label("Outputs")
+        int outputs;
+        @Label("Mode")
+        String mode;
+    }
+
+    @Name("com.datastax.junitpytest.Pytest")
+    @Label("Pytest")
+    @Description("Phase of a pytest process")
+    @Category(CATEGORY)
+    static final class PytestEvent extends Event
+    {
+        @Label("Phase")
+        String phase;
+        @Label("Command")
+        String command;
+    }
+
+    @Name("com.datastax.junitpytest.Test")
+    @Label("Pytest Test")
+    @Description("A pytest test case, the phase durations are reported by pytest")
+    @Category(CATEGORY)
+    static final class TestEvent extends Event implements Jfr.TestEvent
+    {
+        @Label("Test Class")
+        String testClass;
+        @Label("Test Case")
+        String testCase;
+        @Label("Outcome")
+        String outcome;
+        @Label("Setup")
+        @Timespan(Timespan.NANOSECONDS)
+        long setup;
+        @Label("Call")
+        @Timespan(Timespan.NANOSECONDS)
+        long call;
+        @Label("Teardown")
+        @Timespan(Timespan.NANOSECONDS)
+        long teardown;
+
+        @Override
+        public void phases(long setupNanos, long callNanos, long teardownNanos)
+        {
+            setup = setupNanos;
+            call = callNanos;
+            teardown = teardownNanos;
+        }
+
+        @Override
+        public void commit(String outcome)
+        {
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    static Jfr.Event venv(String operation, Path venvDir)
+    {
+        VenvEvent event = new VenvEvent();
+        event.operation = operation;
+        event.directory = venvDir.toString();
+        event.begin();
+        return event::commit;
+    }
+
+    static Jfr.Event outputs(String testClass, String testCase, int outputs, IOUtil.OutputMode mode)
+    {
+        OutputsEvent event = new OutputsEvent();
+        event.testClass = testClass;
+        event.testCase = testCase;
+        event.outputs = outputs;
+        event.mode = mode.name();
+        event.begin();
+        return event::commit;
+    }
+
+    static Jfr.Event pytest(String phase, String command)
+    {
+        PytestEvent event = new PytestEvent();
+        event.phase = phase;
+        event.command = command;
+        event.begin();
+        return event::commit;
+    }
+
+    static Jfr.TestEvent test(String testClass, String testCase)
+    {
+        TestEvent event = new TestEvent();
+        event.testClass = testClass;
+        event.testCase = testCase;
+        event.begin();
+        return event;
+    }
+}
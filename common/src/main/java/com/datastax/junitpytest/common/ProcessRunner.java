@@ -47,8 +47,8 @@ public class ProcessRunner
         {
             awaitInternal(killTimeout, killTimeoutUnit,
                           null,
-                          System.out,
-                          System.err);
+                          out,
+                          err);
             process.destroyForcibly();
         }
         catch (Exception e)
@@ -0,0 +1,405 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.common;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Per-module cache of the results of {@code pytest --collect-only --gradle}, so that only the modules that
+ * changed since the last collection need to be collected again.
+ * <p>
+ * Every Python file below the root directory is recorded with a hash of its content, the content of all
+ * {@code conftest.py} files in its directory and the parent directories and the content of all Python files below
+ * the root directory it (transitively) imports, so that a module whose test classes extend the test classes of
+ * another module is collected again when the other module changes. Files that produced collected tests are
+ * "modules", all other Python files are "helpers". Changed modules are collected again. A changed, added or
+ * removed helper or an unknown file (i.e. a new module) requires a full collection, because these may influence
+ * the collection of any module.
+ * <p>
+ * Usage:
+ * <ol>
+ *     <li>{@link #load(Path, Path, String)}</li>
+ *     <li>{@link #modulesToCollect(Collection)} to get the modules to collect</li>
+ *     <li>{@link #collected(List, boolean)} with the output of {@code pytest} (or an empty list, if nothing had
+ *     to be collected)</li>
+ *     <li>{@link #collectedTests()} and {@link #save()}</li>
+ * </ol>
+ */
+public final class PytestCollectionCache
+{
+    private static final String HEADER = "junitpytest-collection-cache/1 ";
+    private static final String CONFTEST = "conftest.py";
+    private static final String INIT = "__init__.py";
+    private static final Pattern IMPORT = Pattern.compile("^\\s*import\\s+([\\w.\\s,]+)");
+    private static final Pattern FROM_IMPORT = Pattern.compile("^\\s*from\\s+(\\.*)([\\w.]*)\\s+import\\s+\\(?([\\w\\s,]+)");
+
+    private final Path rootDir;
+    private final Path cacheFile;
+    private final String configKey;
+
+    /**
+     * Python files (relative path with forward slashes) with their hash and collected tests of the last
+     * collection, in the order of the last full collection.
+     */
+    private final Map<String, FileEntry> files = new LinkedHashMap<>();
+    private Map<String, String> currentHashes;
+    private boolean valid;
+
+    private PytestCollectionCache(Path rootDir, Path cacheFile, String configKey)
+    {
+        this.rootDir = rootDir;
+        this.cacheFile = cacheFile;
+        this.configKey = configKey;
+    }
+
+    /**
+     * Loads the cache from {@code cacheFile}. The cache is empty, if the file does not exist or if it has been
+     * written for a different {@code configKey}, which must cover everything that influences the collection
+     * besides the Python files, like the pytest options, environment and ini files.
+     */
+    public static PytestCollectionCache load(Path rootDir, Path cacheFile, String configKey) throws IOException
+    {
+        PytestCollectionCache cache = new PytestCollectionCache(rootDir, cacheFile, configKey);
+        try (BufferedReader br = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8))
+        {
+            if (!(HEADER + configKey).equals(br.readLine()))
+                return cache;
+
+            FileEntry current = null;
+            String ln;
+            while ((ln = br.readLine()) != null)
+            {
+                if (ln.startsWith("F\t"))
+                {
+                    int i = ln.indexOf('\t', 2);
+                    current = new FileEntry(ln.substring(i + 1));
+                    cache.files.put(ln.substring(2, i), current);
+                }
+                else if (ln.startsWith("T\t") && current != null)
+                {
+                    current.tests.add(ln.substring(2));
+                }
+            }
+            cache.valid = true;
+        }
+        catch (NoSuchFileException e)
+        {
+            // no cache yet
+        }
+        return cache;
+    }
+
+    /**
+     * Computes the hashes of the given Python files and determines the modules that need to be collected.
+     *
+     * @param pythonFiles all Python files below the root directory, relative paths using forward slashes
+     * @return the modules to collect, an empty list if nothing needs to be collected or {@code null} if a full
+     * collection is required
+     */
+    public List<String> modulesToCollect(Collection<String> pythonFiles) throws IOException
+    {
+        Map<String, byte[]> contents = new HashMap<>();
+        Map<String, List<String>> filesByName = new HashMap<>();
+        for (String file : pythonFiles)
+        {
+            contents.put(file, Files.readAllBytes(rootDir.resolve(file)));
+            filesByName.computeIfAbsent(fileName(file), n -> new ArrayList<>()).add(file);
+        }
+        Map<String, Set<String>> imports = new HashMap<>();
+        for (String file : pythonFiles)
+            imports.put(file, imports(file, contents.get(file), filesByName));
+
+        currentHashes = new HashMap<>();
+        for (String file : pythonFiles)
+            if (!isConftest(file))
+                currentHashes.put(file, hash(file, contents, imports));
+
+        if (!valid)
+            return null;
+
+        List<String> modules = new ArrayList<>();
+        for (Map.Entry<String, String> current : currentHashes.entrySet())
+        {
+            FileEntry previous = files.get(current.getKey());
+            if (previous == null)
+                return null;
+            if (!previous.hash.equals(current.getValue()))
+            {
+                if (previous.tests.isEmpty())
+                    return null;
+                modules.add(current.getKey());
+            }
+        }
+        for (Map.Entry<String, FileEntry> previous : files.entrySet())
+            if (previous.getValue().tests.isEmpty() && !currentHashes.containsKey(previous.getKey()))
+                return null;
+
+        modules.sort(String::compareTo);
+        return modules;
+    }
+
+    /**
+     * Merges the output of {@code pytest --collect-only --gradle}.
+     *
+     * @param output the lines emitted by {@code pytest}
+     * @param full   whether all modules have been collected or only those returned by {@link #modulesToCollect(Collection)}
+     */
+    public void collected(List<String> output, boolean full)
+    {
+        Map<String, List<String>> testsByFile = new LinkedHashMap<>();
+        for (String ln : output)
+        {
+            PytestCollectEntry entry = PytestCollectEntry.parse(ln);
+            if (entry != null)
+                testsByFile.computeIfAbsent(entry.getFile(), f -> new ArrayList<>()).add(ln);
+        }
+
+        if (full)
+        {
+            files.clear();
+            valid = true;
+            for (Map.Entry<String, List<String>> e : testsByFile.entrySet())
+            {
+                String hash = currentHashes.get(e.getKey());
+                // pytest's rootdir differs from the root directory, cannot map the tests to the files
+                if (hash == null)
+                    valid = false;
+                FileEntry fileEntry = new FileEntry(hash);
+                fileEntry.tests.addAll(e.getValue());
+                files.put(e.getKey(), fileEntry);
+            }
+            for (Map.Entry<String, String> e : currentHashes.entrySet())
+                files.computeIfAbsent(e.getKey(), f -> new FileEntry(e.getValue()));
+        }
+        else
+        {
+            for (Map.Entry<String, String> e : currentHashes.entrySet())
+            {
+                FileEntry fileEntry = files.get(e.getKey());
+                if (fileEntry.hash.equals(e.getValue()))
+                    continue;
+                fileEntry.hash = e.getValue();
+                fileEntry.tests.clear();
+                fileEntry.tests.addAll(testsByFile.getOrDefault(e.getKey(), new ArrayList<>()));
+            }
+        }
+
+        // removed modules
+        if (valid)
+            files.keySet().retainAll(currentHashes.keySet());
+    }
+
+    /**
+     * All collected tests in the order of the {@code pytest} output.
+     */
+    public List<String> collectedTests()
+    {
+        List<String> tests = new ArrayList<>();
+        for (FileEntry fileEntry : files.values())
+            tests.addAll(fileEntry.tests);
+        return tests;
+    }
+
+    /**
+     * Writes the cache file or deletes it, if the collected tests cannot be mapped to the Python files.
+     */
+    public void save() throws IOException
+    {
+        if (!valid)
+        {
+            Files.deleteIfExists(cacheFile);
+            return;
+        }
+
+        Files.createDirectories(cacheFile.toAbsolutePath().getParent());
+        Path tmp = Files.createTempFile(cacheFile.toAbsolutePath().getParent(), cacheFile.getFileName().toString(), ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))
+        {
+            w.write(HEADER + configKey);
+            w.newLine();
+            for (Map.Entry<String, FileEntry> e : files.entrySet())
+            {
+                w.write("F\t" + e.getKey() + '\t' + e.getValue().hash);
+                w.newLine();
+                for (String test : e.getValue().tests)
+                {
+                    w.write("T\t" + test);
+                    w.newLine();
+                }
+            }
+        }
+        Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean isConftest(String file)
+    {
+        return file.equals(CONFTEST) || file.endsWith("/" + CONFTEST);
+    }
+
+    /**
+     * The file name, including the directory name for {@code __init__.py}, which is the key of
+     * {@code filesByName}.
+     */
+    private static String fileName(String file)
+    {
+        int i = file.lastIndexOf('/');
+        if (i != -1 && file.substring(i + 1).equals(INIT))
+            i = file.lastIndexOf('/', i - 1);
+        return file.substring(i + 1);
+    }
+
+    /**
+     * The Python files below the root directory imported by {@code file}. The imports are detected line by line,
+     * which is good enough to find the modules that may define the base classes of test classes. As pytest may add
+     * any directory to {@code sys.path}, an absolute import matches all files with the module's path as suffix.
+     */
+    private static Set<String> imports(String file, byte[] content, Map<String, List<String>> filesByName)
+    {
+        Set<String> imported = new TreeSet<>();
+        for (String ln : new String(content, StandardCharsets.UTF_8).split("\n"))
+        {
+            Matcher m = IMPORT.matcher(ln);
+            if (m.find())
+            {
+                for (String name : m.group(1).split(","))
+                    resolve(file, "", name.trim().split("\\s+")[0], filesByName, imported);
+                continue;
+            }
+            m = FROM_IMPORT.matcher(ln);
+            if (m.find())
+            {
+                resolve(file, m.group(1), m.group(2), filesByName, imported);
+                // "from package import module"
+                for (String name : m.group(3).split(","))
+                {
+                    name = name.trim().split("\\s+")[0];
+                    if (!name.isEmpty())
+                        resolve(file, m.group(1), m.group(2).isEmpty() ? name : m.group(2) + '.' + name, filesByName, imported);
+                }
+            }
+        }
+        imported.remove(file);
+        return imported;
+    }
+
+    private static void resolve(String file, String dots, String module, Map<String, List<String>> filesByName, Set<String> imported)
+    {
+        if (module.isEmpty())
+            return;
+        String path = module.replace('.', '/');
+        if (!dots.isEmpty())
+        {
+            // relative import, one dot is the package of the importing file
+            String dir = file;
+            for (int i = 0; i < dots.length(); i++)
+            {
+                // beyond the root directory
+                if (dir.isEmpty())
+                    return;
+                int j = dir.lastIndexOf('/');
+                dir = j == -1 ? "" : dir.substring(0, j);
+            }
+            path = dir.isEmpty() ? path : dir + '/' + path;
+        }
+        for (String candidate : new String[]{ path + ".py", path + '/' + INIT })
+        {
+            for (String f : filesByName.getOrDefault(fileName(candidate), Collections.emptyList()))
+                if (f.equals(candidate) || (dots.isEmpty() && f.endsWith('/' + candidate)))
+                    imported.add(f);
+        }
+    }
+
+    private String hash(String file, Map<String, byte[]> contents, Map<String, Set<String>> imports)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        digest.update(contents.get(file));
+
+        // conftest.py files from the root directory down to the module's directory
+        List<String> dirs = new ArrayList<>();
+        for (int i = file.lastIndexOf('/'); i != -1; i = file.lastIndexOf('/', i - 1))
+            dirs.add(0, file.substring(0, i + 1));
+        dirs.add(0, "");
+        for (String dir : dirs)
+        {
+            byte[] conftest = contents.get(dir + CONFTEST);
+            if (conftest != null)
+            {
+                digest.update((dir + CONFTEST + '\0').getBytes(StandardCharsets.UTF_8));
+                digest.update(conftest);
+            }
+        }
+
+        // transitively imported files
+        Set<String> imported = new TreeSet<>();
+        List<String> pending = new ArrayList<>(imports.get(file));
+        while (!pending.isEmpty())
+        {
+            String f = pending.remove(pending.size() - 1);
+            if (!f.equals(file) && imported.add(f))
+                pending.addAll(imports.get(f));
+        }
+        for (String f : imported)
+        {
+            digest.update((f + '\0').getBytes(StandardCharsets.UTF_8));
+            digest.update(contents.get(f));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest())
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    private static final class FileEntry
+    {
+        String hash;
+        final List<String> tests = new ArrayList<>();
+
+        FileEntry(String hash)
+        {
+            this.hash = hash;
+        }
+    }
+}
@@ -16,23 +16,42 @@
 package com.datastax.junitpytest.common;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class VirtualEnv
 {
+    private static final String STAMP_FILE = ".junitpytest-stamp";
+    private static final Map<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
     private final File sourceDir;
     private final Path venvDir;
     private final Path frozenRequirementsTxt;
@@ -40,6 +59,7 @@ public class VirtualEnv
     private final File pythonExecutable;
     private final List<String> pipOptions;
     private final Map<String, String> pipEnv;
+    private final Path wheelhouse;
 
     public VirtualEnv(File sourceDir,
                       Path venvDir,
@@ -48,6 +68,23 @@ public class VirtualEnv
                       File pythonExecutable,
                       List<String> pipOptions,
                       Map<String, String> pipEnv)
+    {
+        this(sourceDir, venvDir, frozenRequirementsTxt, virtualenvExecutable, pythonExecutable, pipOptions, pipEnv, null);
+    }
+
+    /**
+     * @param wheelhouse optional directory containing the wheels of all frozen requirements, built via
+     *                   {@link #buildWheelhouse(Path, Path)}, used to install the frozen requirements without
+     *                   network access
+     */
+    public VirtualEnv(File sourceDir,
+                      Path venvDir,
+                      Path frozenRequirementsTxt,
+                      File virtualenvExecutable,
+                      File pythonExecutable,
+                      List<String> pipOptions,
+                      Map<String, String> pipEnv,
+                      Path wheelhouse)
     {
         this.sourceDir = sourceDir;
         this.venvDir = venvDir;
@@ -56,6 +93,75 @@ public class VirtualEnv
         this.pythonExecutable = pythonExecutable;
         this.pipOptions = pipOptions;
         this.pipEnv = pipEnv;
+        this.wheelhouse = wheelhouse;
+    }
+
+    /**
+     * Directory of the virtual environment for the given Python interpreter, frozen requirements, pytest-plugin,
+     * pip options and source requirements in the machine-wide cache directory {@code cacheDir}.
+     * <p>
+     * Virtual environments are not relocatable, so the returned directory must be used as is.
+     */
+    public static Path cachedVenvDirectory(Path cacheDir,
+                                           File pythonExecutable,
+                                           Path frozenRequirementsTxt,
+                                           URL pytestPluginResource,
+                                           List<String> pipOptions,
+                                           Collection<String> sourceRequirements) throws IOException
+    {
+        MessageDigest digest = sha256();
+        updateDigest(digest, fileState(pythonExecutable.toPath().toRealPath()));
+        digest.update(Files.readAllBytes(frozenRequirementsTxt));
+        updateDigest(digest, pytestPluginResource.toString());
+        updateDigest(digest, String.join("\0", pipOptions));
+        for (String sourceRequirement : sourceRequirements)
+            updateDigest(digest, new File(sourceRequirement).getAbsolutePath());
+        return cacheDir.resolve(hex(digest.digest()).substring(0, 32));
+    }
+
+    /**
+     * Acquires an exclusive lock for this virtual environment, which guards against concurrent modifications by
+     * other processes and threads. The lock is released when the returned {@link Closeable} is closed.
+     */
+    public Closeable lock() throws IOException
+    {
+        Path absoluteVenvDir = venvDir.toAbsolutePath();
+        Path lockFile = absoluteVenvDir.resolveSibling(absoluteVenvDir.getFileName() + ".lock");
+        Files.createDirectories(lockFile.getParent());
+
+        // FileLock only guards against other processes, not against other threads of the same JVM
+        ReentrantLock jvmLock = LOCKS.computeIfAbsent(lockFile, f -> new ReentrantLock());
+        jvmLock.lock();
+        try
+        {
+            FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock fileLock;
+            try
+            {
+                fileLock = channel.lock();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                channel.close();
+                throw e;
+            }
+            return () -> {
+                try
+                {
+                    fileLock.release();
+                    channel.close();
+                }
+                finally
+                {
+                    jvmLock.unlock();
+                }
+            };
+        }
+        catch (IOException | RuntimeException e)
+        {
+            jvmLock.unlock();
+            throw e;
+        }
     }
 
     public void createVenvIfNecessary() throws IOException
@@ -81,10 +187,12 @@ public class VirtualEnv
 
             System.out.println("Starting " + String.join(" ", command));
 
+            Jfr.Event event = Jfr.venv("create", venvDir);
             Process process = new ProcessBuilder().directory(sourceDir)
                                                   .command(command).start();
             ProcessRunner pr = new ProcessRunner(process, 10, TimeUnit.SECONDS);
             pr.await(2, TimeUnit.MINUTES).assertExitCode();
+            event.commit();
         }
     }
 
@@ -105,7 +213,237 @@ public class VirtualEnv
         String installed = getInstalled(modifiedPath);
         String expected = new String(Files.readAllBytes(frozenRequirementsTxt), StandardCharsets.UTF_8);
         if (!installed.equals(expected))
+        {
+            if (wheelhouse != null && Files.isDirectory(wheelhouse))
+            {
+                try
+                {
+                    installRequirements(frozenRequirementsTxt.toAbsolutePath().toString(),
+                                        "--no-index", "--find-links", wheelhouse.toAbsolutePath().toString());
+                    return;
+                }
+                catch (AssertionError e)
+                {
+                    System.err.println("Failed to install frozen requirements from wheelhouse " + wheelhouse + ", falling back to package index");
+                }
+            }
             installRequirements(frozenRequirementsTxt.toAbsolutePath().toString());
+        }
+    }
+
+    /**
+     * Builds (or downloads) the wheels of all frozen requirements into the {@code wheelhouse} directory, which
+     * test agents use to install the frozen requirements without network access. Existing files in
+     * {@code wheelhouse} are removed.
+     * <p>
+     * The frozen requirements are the complete, resolved set of requirements, so each requirement is handled by
+     * a separate, concurrently running {@code pip wheel --no-deps}.
+     */
+    public void buildWheelhouse(Path wheelhouse, Path pytestPluginArchiveFile) throws IOException
+    {
+        wheelhouse = wheelhouse.toAbsolutePath();
+        if (Files.isDirectory(wheelhouse))
+            try (Stream<Path> files = Files.list(wheelhouse))
+            {
+                for (Path file : files.collect(Collectors.toList()))
+                    Files.delete(file);
+            }
+        Files.createDirectories(wheelhouse);
+
+        Files.copy(pytestPluginArchiveFile, wheelhouse.resolve(pytestPluginArchiveFile.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+
+        List<String> requirements = Files.readAllLines(frozenRequirementsTxt, StandardCharsets.UTF_8)
+                                         .stream()
+                                         .map(String::trim)
+                                         .filter(ln -> !ln.isEmpty() && !ln.startsWith("#") && !ln.startsWith("-"))
+                                         .filter(ln -> !ln.replace('_', '-').startsWith("junit-pytest-plugin"))
+                                         .collect(Collectors.toList());
+
+        String modifiedPath = modifiedPathEnv();
+        Path wheelDir = wheelhouse;
+        // Mostly waiting for downloads, so use some threads even on small machines
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(8, Math.max(4, Runtime.getRuntime().availableProcessors())));
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String requirement : requirements)
+                futures.add(executor.submit(() -> {
+                    List<String> command = new ArrayList<>();
+                    command.add(venvBin().resolve("pip").toString());
+                    command.add("wheel");
+                    command.addAll(pipOptions);
+                    command.add("--no-deps");
+                    command.add("--wheel-dir");
+                    command.add(wheelDir.toString());
+                    command.add(requirement);
+
+                    ProcessBuilder pb = new ProcessBuilder().directory(venvDir.toFile())
+                                                            .command(command);
+
+                    System.out.println("Starting " + String.join(" ", pb.command()));
+
+                    pb.environment().putAll(pipEnv);
+                    pb.environment().put("PATH", modifiedPath);
+                    Process proc = pb.start();
+                    new ProcessRunner(proc, 5, TimeUnit.SECONDS).await(30, TimeUnit.MINUTES)
+                                                                .assertExitCode();
+                    return null;
+                }));
+
+            IOException failure = null;
+            for (Future<?> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    if (failure == null)
+                        failure = new IOException("Failed to build wheelhouse " + wheelhouse, e.getCause());
+                    else
+                        failure.addSuppressed(e.getCause());
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while building wheelhouse " + wheelhouse, e);
+                }
+            }
+            if (failure != null)
+                throw failure;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks whether the virtual environment is still in the state recorded via {@link #writeStamp(URL, Collection)},
+     * i.e. whether installing the pytest-plugin, the frozen requirements and the source requirements can be skipped.
+     * <p>
+     * The stamp covers the frozen requirements, the pytest-plugin, the pip options, the Python interpreter, the
+     * source requirements' build files and the packages installed in {@code site-packages}, so changes to the
+     * virtual environment made via {@code pip} outside of this class are detected as well.
+     */
+    public boolean isUpToDate(URL pytestPluginResource, Collection<String> sourceRequirements) throws IOException
+    {
+        Path stampFile = venvDir.resolve(STAMP_FILE);
+        if (!Files.isRegularFile(stampFile))
+            return false;
+        String stamp = new String(Files.readAllBytes(stampFile), StandardCharsets.UTF_8);
+        return stamp.equals(fingerprint(pytestPluginResource, sourceRequirements));
+    }
+
+    /**
+     * Records the current state of the virtual environment, must be called after all requirements have been
+     * installed.
+     */
+    public void writeStamp(URL pytestPluginResource, Collection<String> sourceRequirements) throws IOException
+    {
+        Path stampFile = venvDir.resolve(STAMP_FILE);
+        Path tmp = Files.createTempFile(venvDir, STAMP_FILE, ".tmp");
+        Files.write(tmp, fingerprint(pytestPluginResource, sourceRequirements).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, stampFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String fingerprint(URL pytestPluginResource, Collection<String> sourceRequirements) throws IOException
+    {
+        MessageDigest digest = sha256();
+
+        digest.update(Files.readAllBytes(frozenRequirementsTxt));
+
+        byte[] buf = new byte[8192];
+        try (InputStream in = pytestPluginResource.openConnection().getInputStream())
+        {
+            int rd;
+            while ((rd = in.read(buf)) >= 0)
+                digest.update(buf, 0, rd);
+        }
+
+        updateDigest(digest, String.join("\0", pipOptions));
+        updateDigest(digest, pipEnv.toString());
+
+        Path pyvenvCfg = venvDir.resolve("pyvenv.cfg");
+        if (Files.isRegularFile(pyvenvCfg))
+            digest.update(Files.readAllBytes(pyvenvCfg));
+        Path python = venvBin().resolve("python");
+        if (Files.exists(python))
+            updateDigest(digest, fileState(python.toRealPath()));
+
+        // Installed packages (and their versions) are identified by the names of the *.dist-info/*.egg-info
+        // directories, pip-reinstalls and editable installs by the modification time of those and *.pth/*.egg-link
+        // files. The modification times of the package directories are not considered, because those change
+        // when Python writes the __pycache__ directories.
+        List<Path> sitePackagesDirs;
+        try (Stream<Path> libDirs = Files.list(venvDir.resolve("lib")))
+        {
+            sitePackagesDirs = libDirs.map(lib -> lib.resolve("site-packages"))
+                                      .filter(Files::isDirectory)
+                                      .sorted()
+                                      .collect(Collectors.toList());
+        }
+        for (Path sitePackages : sitePackagesDirs)
+        {
+            List<Path> entries;
+            try (Stream<Path> list = Files.list(sitePackages))
+            {
+                entries = list.sorted().collect(Collectors.toList());
+            }
+            for (Path entry : entries)
+            {
+                String name = entry.getFileName().toString();
+                updateDigest(digest, name);
+                if (name.endsWith(".dist-info") || name.endsWith(".egg-info") || name.endsWith(".pth") || name.endsWith(".egg-link"))
+                    updateDigest(digest, fileState(entry));
+            }
+        }
+
+        for (String sourceRequirement : sourceRequirements)
+        {
+            updateDigest(digest, sourceRequirement);
+            for (String buildFile : Arrays.asList("setup.py", "setup.cfg", "pyproject.toml", "requirements.txt"))
+            {
+                Path file = new File(sourceRequirement, buildFile).toPath();
+                if (Files.exists(file))
+                    updateDigest(digest, fileState(file));
+            }
+        }
+
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    private static String fileState(Path file) throws IOException
+    {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return file + ":" + attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+    }
+
+    private static void updateDigest(MessageDigest digest, String value)
+    {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
     }
 
     private String getInstalled(String modifiedPath) throws IOException
@@ -139,17 +477,20 @@ public class VirtualEnv
         System.out.println("Starting " + String.join(" ", pb.command()));
 
         pb.environment().put("PATH", modifiedPathEnv());
+        Jfr.Event event = Jfr.venv("install-plugin", venvDir);
         Process proc = pb.start();
         new ProcessRunner(proc, 5, TimeUnit.SECONDS).await(2, TimeUnit.MINUTES)
                                                     .assertExitCode();
+        event.commit();
     }
 
-    public void installRequirements(String requirementsTxt) throws IOException
+    public void installRequirements(String requirementsTxt, String... additionalPipOptions) throws IOException
     {
         List<String> command = new ArrayList<>();
         command.add(venvBin().resolve("pip").toString());
         command.add("install");
         command.addAll(pipOptions);
+        command.addAll(Arrays.asList(additionalPipOptions));
         command.add("--requirement");
         command.add(requirementsTxt);
 
@@ -163,9 +504,11 @@ public class VirtualEnv
 
         pb.environment().putAll(pipEnv);
         pb.environment().put("PATH", modifiedPath);
+        Jfr.Event event = Jfr.venv("install-requirements", venvDir);
         Process proc = pb.start();
         new ProcessRunner(proc, 5, TimeUnit.SECONDS).await(30, TimeUnit.MINUTES)
                                                     .assertExitCode();
+        event.commit();
     }
 
     public void installSourceRequirement(String sourceReq) throws IOException
@@ -183,9 +526,11 @@ public class VirtualEnv
 
         pb.environment().putAll(pipEnv);
         pb.environment().put("PATH", modifiedPath);
+        Jfr.Event event = Jfr.venv("install-source-requirement", venvDir);
         Process proc = pb.start();
         new ProcessRunner(proc, 5, TimeUnit.SECONDS).await(2, TimeUnit.MINUTES)
                                                     .assertExitCode();
+        event.commit();
     }
 
     public String modifiedPathEnv()
@@ -0,0 +1,82 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class CollectedTestsIndexTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    public void writeAndLookup() throws IOException
+    {
+        List<String> lines = Arrays.asList("dir_one/some_file.py::FooTest::test_a::test_a",
+                                           "dir_one/some_file.py::FooTest::test_b::test_b[1-x]",
+                                           "dir_one/some_file.py::FooTest::test_b::test_b[2-ü]",
+                                           "dir_one/some_file.py::BarTest::test_a::test_a",
+                                           "other.py::ZTest::test_z::test_z");
+        Path collectedTestsFile = dir.resolve("collected");
+        Files.write(collectedTestsFile, lines);
+        List<PytestCollectEntry> entries = lines.stream().map(PytestCollectEntry::parse).collect(Collectors.toList());
+        CollectedTestsIndex.write(CollectedTestsIndex.indexFileFor(collectedTestsFile), entries, collectedTestsFile);
+
+        CollectedTestsIndex index = CollectedTestsIndex.open(collectedTestsFile);
+        assertThat(index.getClassCount()).isEqualTo(3);
+
+        CollectedTestsIndex.TestClass foo = index.lookup("dir_one.some_file.FooTest");
+        assertThat(foo.getFile()).isEqualTo("dir_one/some_file.py");
+        assertThat(foo.getSimpleClassName()).isEqualTo("FooTest");
+        assertThat(foo.getTests()).containsExactly("test_a", "test_b[1-x]", "test_b[2-ü]");
+        assertThat(foo.getModuleClassCount()).isEqualTo(2);
+
+        assertThat(index.lookup("dir_one.some_file.BarTest").getTests()).containsExactly("test_a");
+        assertThat(index.lookup("other.ZTest").getTests()).containsExactly("test_z");
+        assertThat(index.lookup("other.ZTest").getModuleClassCount()).isEqualTo(1);
+        assertNull(index.lookup("dir_one.some_file.Foo"));
+        assertNull(index.lookup("zzz.Unknown"));
+
+        // outdated index, same length
+        long length = Files.size(collectedTestsFile);
+        FileTime lastModified = Files.getLastModifiedTime(collectedTestsFile);
+        Files.write(collectedTestsFile, Arrays.asList("dir_one/some_file.py::FooTest::test_a::test_c",
+                                                      "dir_one/some_file.py::FooTest::test_b::test_b[1-x]",
+                                                      "dir_one/some_file.py::FooTest::test_b::test_b[2-ü]",
+                                                      "dir_one/some_file.py::BarTest::test_a::test_a",
+                                                      "other.py::ZTest::test_z::test_z"));
+        assertThat(Files.size(collectedTestsFile)).isEqualTo(length);
+        // do not depend on the timestamp resolution of the file system
+        Files.setLastModifiedTime(collectedTestsFile, FileTime.fromMillis(lastModified.toMillis() + 2000));
+        assertNull(CollectedTestsIndex.open(collectedTestsFile));
+
+        // outdated index
+        Files.write(collectedTestsFile, lines.subList(0, 2));
+        assertNull(CollectedTestsIndex.open(collectedTestsFile));
+    }
+}
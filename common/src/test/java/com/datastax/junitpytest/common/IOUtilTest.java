@@ -0,0 +1,66 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IOUtilTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    public void outputModes() throws IOException
+    {
+        for (IOUtil.OutputMode mode : IOUtil.OutputMode.values())
+        {
+            Path cwd = dir.resolve("cwd-" + mode);
+            write(cwd.resolve("logs/node1/system.log"), "node1");
+            write(cwd.resolve("logs/node2/system.log"), "node2");
+            write(cwd.resolve("result.txt"), "result");
+            Path outputs = dir.resolve("outputs-" + mode);
+            write(outputs.resolve("TestClass/test_case/stale.txt"), "stale");
+
+            IOUtil.copyOuptuts(outputs, cwd, "logs\nresult.txt", "TestClass", "test_case", mode);
+
+            Path target = outputs.resolve("TestClass/test_case");
+            assertThat(Files.exists(target.resolve("stale.txt"))).isFalse();
+            assertThat(read(target.resolve("node1/system.log"))).isEqualTo("node1");
+            assertThat(read(target.resolve("node2/system.log"))).isEqualTo("node2");
+            assertThat(read(target.resolve("result.txt"))).isEqualTo("result");
+            assertThat(Files.exists(cwd.resolve("result.txt"))).isEqualTo(mode != IOUtil.OutputMode.MOVE);
+        }
+    }
+
+    private static void write(Path file, String content) throws IOException
+    {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException
+    {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PytestCollectionCacheTest
+{
+    private static final List<String> FILES = Arrays.asList("conftest.py", "helper.py", "a/test_a.py", "b/conftest.py", "b/test_b.py");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void incrementalCollection() throws IOException
+    {
+        Path cacheFile = dir.resolve("cache.txt");
+        for (String file : FILES)
+            write(file, file);
+
+        // no cache yet
+        PytestCollectionCache cache = PytestCollectionCache.load(dir, cacheFile, "key");
+        assertThat(cache.modulesToCollect(FILES)).isNull();
+        cache.collected(Arrays.asList("some noise",
+                                      "a/test_a.py::TestA::test_1::test_1",
+                                      "b/test_b.py::TestB::test_1::test_1",
+                                      "b/test_b.py::TestB::test_2::test_2"), true);
+        cache.save();
+
+        // nothing changed
+        cache = PytestCollectionCache.load(dir, cacheFile, "key");
+        assertThat(cache.modulesToCollect(FILES)).isEmpty();
+        cache.collected(Collections.emptyList(), false);
+        assertThat(cache.collectedTests()).containsExactly("a/test_a.py::TestA::test_1::test_1",
+                                                           "b/test_b.py::TestB::test_1::test_1",
+                                                           "b/test_b.py::TestB::test_2::test_2");
+
+        // changed module and conftest.py
+        write("a/test_a.py", "changed");
+        write("b/conftest.py", "changed");
+        cache = PytestCollectionCache.load(dir, cacheFile, "key");
+        assertThat(cache.modulesToCollect(FILES)).containsExactly("a/test_a.py", "b/test_b.py");
+        cache.collected(Arrays.asList("a/test_a.py::TestA::test_x::test_x",
+                                      "b/test_b.py::TestB::test_1::test_1"), false);
+        assertThat(cache.collectedTests()).containsExactly("a/test_a.py::TestA::test_x::test_x",
+                                                           "b/test_b.py::TestB::test_1::test_1");
+        cache.save();
+
+        // removed module
+        List<String> withoutA = Arrays.asList("conftest.py", "helper.py", "b/conftest.py", "b/test_b.py");
+        cache = PytestCollectionCache.load(dir, cacheFile, "key");
+        assertThat(cache.modulesToCollect(withoutA)).isEmpty();
+        cache.collected(Collections.emptyList(), false);
+        assertThat(cache.collectedTests()).containsExactly("b/test_b.py::TestB::test_1::test_1");
+
+        // changed helper, new file, different configuration
+        write("helper.py", "changed");
+        assertThat(PytestCollectionCache.load(dir, cacheFile, "key").modulesToCollect(FILES)).isNull();
+        write("helper.py", "helper.py");
+        write("c.py", "c.py");
+        assertThat(PytestCollectionCache.load(dir, cacheFile, "key").modulesToCollect(Arrays.asList("conftest.py", "helper.py", "a/test_a.py", "b/conftest.py", "b/test_b.py", "c.py"))).isNull();
+        assertThat(PytestCollectionCache.load(dir, cacheFile, "other").modulesToCollect(FILES)).isNull();
+    }
+
+    @Test
+    public void inheritedTestClasses() throws IOException
+    {
+        Path cacheFile = dir.resolve("cache.txt");
+        List<String> files = Arrays.asList("unit_tests.py", "extend_tests.py", "other_tests.py", "pkg/__init__.py", "pkg/base.py", "pkg/test_rel.py");
+        write("unit_tests.py", "class TestUnit:\n    def test_1(self):\n        pass\n");
+        write("extend_tests.py", "from unit_tests import TestUnit\n\nclass TestExtend(TestUnit):\n    pass\n");
+        write("other_tests.py", "import os\n\nclass TestOther:\n    pass\n");
+        write("pkg/__init__.py", "");
+        write("pkg/base.py", "class TestBase:\n    def test_b(self):\n        pass\n");
+        write("pkg/test_rel.py", "from .base import TestBase\n\nclass TestRel(TestBase):\n    pass\n");
+
+        PytestCollectionCache cache = PytestCollectionCache.load(dir, cacheFile, "key");
+        assertThat(cache.modulesToCollect(files)).isNull();
+        cache.collected(Arrays.asList("unit_tests.py::TestUnit::test_1::test_1",
+                                      "extend_tests.py::TestExtend::test_1::test_1",
+                                      "other_tests.py::TestOther::test_o::test_o",
+                                      "pkg/base.py::TestBase::test_b::test_b",
+                                      "pkg/test_rel.py::TestRel::test_b::test_b"), true);
+        cache.save();
+
+        // the modules extending the test classes of a changed module are collected again
+        write("unit_tests.py", "class TestUnit:\n    def test_2(self):\n        pass\n");
+        write("pkg/base.py", "class TestBase:\n    def test_c(self):\n        pass\n");
+        cache = PytestCollectionCache.load(dir, cacheFile, "key");
+        assertThat(cache.modulesToCollect(files)).containsExactly("extend_tests.py", "pkg/base.py", "pkg/test_rel.py", "unit_tests.py");
+        cache.collected(Arrays.asList("unit_tests.py::TestUnit::test_2::test_2",
+                                      "extend_tests.py::TestExtend::test_2::test_2",
+                                      "pkg/base.py::TestBase::test_c::test_c",
+                                      "pkg/test_rel.py::TestRel::test_c::test_c"), false);
+        assertThat(cache.collectedTests()).containsExactly("unit_tests.py::TestUnit::test_2::test_2",
+                                                           "extend_tests.py::TestExtend::test_2::test_2",
+                                                           "other_tests.py::TestOther::test_o::test_o",
+                                                           "pkg/base.py::TestBase::test_c::test_c",
+                                                           "pkg/test_rel.py::TestRel::test_c::test_c");
+    }
+
+    private void write(String file, String content) throws IOException
+    {
+        Path path = dir.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes());
+    }
+}
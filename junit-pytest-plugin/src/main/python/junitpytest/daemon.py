@@ -0,0 +1,268 @@
+# Copyright DataStax, Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+
+"""
+Long-lived pytest process used by the pytest-junit-engine, when `pytest.daemon` is enabled.
+
+The daemon imports pytest, the plugins, conftest files and all test modules once by collecting the tests. Each
+request from the pytest-junit-engine is executed in a forked child process, which inherits the already imported
+modules, so the daemon itself stays unaffected by the tests.
+
+When started, the daemon listens on a loopback port and writes `<port> <token>` to the state file. The
+pytest-junit-engine connects and sends a request:
+
+    <token>\n
+    ARG <pytest argument>\n      (repeated)
+    ENV <name>=<value>\n         (repeated, the complete environment for the tests)
+    OUTPUT <file>\n              (stdout and stderr of the forked process are appended to this file)
+    RUN\n
+
+The forked process responds with `OK <pid>\n` followed by the messages of the `--gradle` plugin, the connection is
+closed when the forked process has exited. If a file of an imported module below the working directory has been changed since
+the daemon has been started, the daemon responds with `STALE\n` and exits, the pytest-junit-engine then starts a new
+daemon.
+
+To terminate a forked process, e.g. because a test timed out or the test run has been aborted, the
+pytest-junit-engine connects again and sends:
+
+    <token>\n
+    KILL <pid>\n
+
+The daemon exits, when it did not receive any request for `--idle-timeout` seconds.
+"""
+
+import argparse
+import binascii
+import os
+import select
+import signal
+import socket
+import sys
+import time
+import traceback
+
+import pytest
+
+
+def main(argv=None):
+    parser = argparse.ArgumentParser(prog="python -m junitpytest.daemon")
+    parser.add_argument("--state-file", required=True,
+                        help="File to write '<port> <token>' to, once the daemon is ready")
+    parser.add_argument("--idle-timeout", type=float, default=900,
+                        help="Exit after this number of seconds without a request")
+    parser.add_argument("pytest_options", nargs=argparse.REMAINDER,
+                        help="Options for pytest used to collect (pre-load) the tests")
+    args = parser.parse_args(argv)
+    pytest_options = args.pytest_options
+    if pytest_options and pytest_options[0] == "--":
+        pytest_options = pytest_options[1:]
+    Daemon(args.state_file, args.idle_timeout, pytest_options).serve()
+
+
+class Daemon(object):
+    def __init__(self, state_file, idle_timeout, pytest_options):
+        self.state_file = os.path.abspath(state_file)
+        self.idle_timeout = idle_timeout
+        self.pytest_options = pytest_options
+        self.root = os.getcwd()
+        self.token = binascii.hexlify(os.urandom(16)).decode("ascii")
+        self.state = None
+        self.mtimes = {}
+        self.children = {}
+        self.server = None
+        self.wakeup_read = None
+        self.wakeup_write = None
+
+    def preload(self):
+        pytest.main(["--collect-only", "-q", "-p", "no:cacheprovider"] + self.pytest_options)
+        sys.stdout.flush()
+        for module in list(sys.modules.values()):
+            path = getattr(module, "__file__", None)
+            if path and os.path.abspath(path).startswith(self.root + os.sep):
+                try:
+                    self.mtimes[path] = os.stat(path).st_mtime
+                except OSError:
+                    pass
+        print("junitpytest daemon pre-loaded {} modules".format(len(self.mtimes)))
+
+    def is_stale(self):
+        for path, mtime in self.mtimes.items():
+            try:
+                if os.stat(path).st_mtime != mtime:
+                    return True
+            except OSError:
+                return True
+        return False
+
+    def serve(self):
+        self.preload()
+
+        self.server = server = socket.socket(socket.AF_INET, socket.SOCK_STREAM)
+        server.bind(("127.0.0.1", 0))
+        server.listen(16)
+        self.state = "{} {}\n".format(server.getsockname()[1], self.token)
+        tmp = "{}.{}.tmp".format(self.state_file, os.getpid())
+        with open(tmp, "w") as f:
+            f.write(self.state)
+        os.replace(tmp, self.state_file)
+        sys.stdout.flush()
+
+        # SIGCHLD wakes up select(), so the connection is closed as soon as the child process has exited
+        self.wakeup_read, self.wakeup_write = os.pipe()
+        os.set_blocking(self.wakeup_write, False)
+        signal.signal(signal.SIGCHLD, lambda signum, frame: None)
+        signal.set_wakeup_fd(self.wakeup_write)
+
+        last_request = time.time()
+        try:
+            while True:
+                readable, _, _ = select.select([server, self.wakeup_read], [], [], 1.0)
+                if self.wakeup_read in readable:
+                    os.read(self.wakeup_read, 512)
+                if server in readable:
+                    conn, _ = server.accept()
+                    last_request = time.time()
+                    if not self.handle(conn):
+                        break
+                self.reap(os.WNOHANG)
+                if self.children:
+                    last_request = time.time()
+                elif time.time() - last_request > self.idle_timeout:
+                    break
+        finally:
+            self.remove_state_file()
+            server.close()
+            self.reap(0)
+
+    def remove_state_file(self):
+        # Another daemon may have been started in the meantime, don't remove its state file
+        try:
+            with open(self.state_file) as f:
+                if f.read() != self.state:
+                    return
+            os.remove(self.state_file)
+        except OSError:
+            pass
+
+    def reap(self, options):
+        for pid in list(self.children):
+            try:
+                finished, _ = os.waitpid(pid, options)
+            except OSError:
+                finished = pid
+            if finished == pid:
+                self.children.pop(pid).close()
+
+    def kill(self, pid):
+        # Only kill forked processes of this daemon, which have not been reaped yet
+        if pid in self.children:
+            try:
+                os.kill(pid, signal.SIGKILL)
+            except OSError:
+                pass
+
+    def handle(self, conn):
+        """Handles a request, returns False if the daemon is stale and must exit."""
+        try:
+            conn.settimeout(30)
+            reader = conn.makefile("rb")
+            lines = []
+            while True:
+                line = reader.readline()
+                if not line:
+                    conn.close()
+                    return True
+                line = line.decode("utf-8").rstrip("\n")
+                if line == "RUN" or line.startswith("KILL "):
+                    break
+                lines.append(line)
+            reader.close()
+        except (OSError, socket.timeout):
+            conn.close()
+            return True
+
+        if not lines or lines[0] != self.token:
+            conn.close()
+            return True
+
+        if line.startswith("KILL "):
+            self.kill(int(line[5:]))
+            conn.close()
+            return True
+
+        args = []
+        env = {}
+        output = os.devnull
+        for line in lines[1:]:
+            kind, _, value = line.partition(" ")
+            if kind == "ARG":
+                args.append(value)
+            elif kind == "ENV":
+                name, _, value = value.partition("=")
+                env[name] = value
+            elif kind == "OUTPUT":
+                output = value
+
+        if self.is_stale():
+            conn.sendall(b"STALE\n")
+            conn.close()
+            return False
+
+        conn.settimeout(None)
+        sys.stdout.flush()
+        sys.stderr.flush()
+        pid = os.fork()
+        if pid == 0:
+            exit_code = 1
+            try:
+                # Only keep the connection of this request, the other connections must be closed when their
+                # child processes exit
+                signal.set_wakeup_fd(-1)
+                signal.signal(signal.SIGCHLD, signal.SIG_DFL)
+                os.close(self.wakeup_read)
+                os.close(self.wakeup_write)
+                self.server.close()
+                for other in self.children.values():
+                    other.close()
+                conn.sendall("OK {}\n".format(os.getpid()).encode("utf-8"))
+                exit_code = run_child(conn, args, env, output)
+            except BaseException:
+                traceback.print_exc()
+            finally:
+                sys.stdout.flush()
+                sys.stderr.flush()
+                os._exit(int(exit_code))
+        # The connection is closed when the child has exited, see reap()
+        self.children[pid] = conn
+        return True
+
+
+def run_child(conn, args, env, output):
+    os.environ.clear()
+    os.environ.update(env)
+
+    stdin = os.open(os.devnull, os.O_RDONLY)
+    os.dup2(stdin, 0)
+    os.close(stdin)
+    out = os.open(output, os.O_WRONLY | os.O_CREAT | os.O_APPEND, 0o644)
+    os.dup2(out, 1)
+    os.dup2(out, 2)
+    os.close(out)
+
+    return pytest.main(args + ["--gradle-channel=fd:{}".format(conn.fileno())])
+
+
+if __name__ == "__main__":
+    main()
@@ -12,16 +12,26 @@
 # See the License for the specific language governing permissions and
 # limitations under the License.
 
+import os
 import platform
 import pluggy
 import py
 import py.io
 import pytest
 import six
+import socket
 import sys
+import timeit
 import _pytest.python
 from _pytest.main import EXIT_INTERRUPTED
 
+from junitpytest.impact import FileTracker
+
+try:
+    import faulthandler
+except ImportError:
+    faulthandler = None
+
 
 def pytest_configure(config):
     if config.getoption("gradle"):
@@ -31,6 +41,17 @@ def pytest_configure(config):
 def pytest_addoption(parser):
     parser.addoption("--gradle", action="store_true", default=False,
                      help="Enables Gradle-JUnit-Jupiter test engine support for pytest")
+    parser.addoption("--gradle-framing", action="store", default="text", choices=("text", "binary"),
+                     help="Framing of the messages sent to the Gradle-JUnit-Jupiter test engine")
+    parser.addoption("--gradle-channel", action="store", default=None, metavar="HOST:PORT",
+                     help="Send the messages for the Gradle-JUnit-Jupiter test engine to this socket instead of "
+                          "stdout, 'fd:<N>' uses the already connected socket with the file descriptor N")
+    parser.addoption("--gradle-impact", action="store_true", default=False,
+                     help="Report the Python files below the current directory executed by each test to the "
+                          "Gradle-JUnit-Jupiter test engine for test impact analysis")
+    parser.addoption("--gradle-test-timeout", action="store", type=int, default=0, metavar="SECONDS",
+                     help="Dump the Python stacks of all threads to stderr and exit, when a single test runs longer "
+                          "than this number of seconds")
 
 
 # noinspection PyMethodMayBeStatic
@@ -47,10 +68,52 @@ class GradlePlugin(object):
         self._logfragments = {}
         self.collect_only = config.getoption("--collect-only")
         self._outputs = set()
+        self._fixtures = []
+        self._fixturenames = ()
+        self._binary = config.getoption("gradle_framing") == "binary"
+        self._binary_names = None
+        self._channel_socket = None
+        self._channel = None
+        self._impact = FileTracker(os.getcwd()) if config.getoption("gradle_impact") else None
+        self._test_timeout = config.getoption("gradle_test_timeout")
+        self._timeout_file = None
+        if self._test_timeout > 0 and faulthandler is not None:
+            # Output capturing is suspended while pytest is being configured, keep the "real" stderr
+            # for the stacks dumped by faulthandler.
+            self._timeout_file = os.fdopen(os.dup(2), "w")
+
+        channel = config.getoption("gradle_channel")
+        if channel:
+            self._open_channel(channel)
 
         # No output to the terminal, output stuff in a way that the JUnit-Pytest-Engine can parse
         config.pluginmanager.set_blocked("terminalreporter")
 
+    def _open_channel(self, channel):
+        if channel.startswith("fd:"):
+            # Connection accepted and authenticated by junitpytest.daemon
+            self._channel_socket = socket.fromfd(int(channel[3:]), socket.AF_INET, socket.SOCK_STREAM)
+            self._channel = self._channel_socket.makefile("wb", buffering=65536)
+            return
+        host, port = channel.rsplit(":", 1)
+        # The token proves to the pytest-junit-engine that this process is the one it started, don't leak it to tests
+        token = os.environ.pop("JUNITPYTEST_CHANNEL_TOKEN", "")
+        self._channel_socket = socket.create_connection((host, int(port)))
+        self._channel = self._channel_socket.makefile("wb", buffering=65536)
+        self._channel.write("{}\n".format(token).encode("utf-8"))
+        self._channel.flush()
+
+    # noinspection PyUnusedLocal
+    def pytest_unconfigure(self, config):
+        if self._channel is not None:
+            self._channel.close()
+            self._channel_socket.close()
+            self._channel = None
+        if self._timeout_file is not None:
+            faulthandler.cancel_dump_traceback_later()
+            self._timeout_file.close()
+            self._timeout_file = None
+
     def register_outputs(self, files_or_dirs):
         if not files_or_dirs:
             return
@@ -115,6 +178,11 @@ class GradlePlugin(object):
         ))
         self._running_test = True
         self._logfragments.clear()
+        del self._fixtures[:]
+        if self._impact is not None:
+            self._impact.start()
+        if self._timeout_file is not None:
+            faulthandler.dump_traceback_later(self._test_timeout, exit=True, file=self._timeout_file)
 
     def pytest_runtest_logreport(self, report):
         rep = report
@@ -131,6 +199,9 @@ class GradlePlugin(object):
 
         when = rep.when
 
+        if getattr(rep, "duration", None) is not None:
+            self._logfragments['duration_{}'.format(when)] = "%f" % rep.duration
+
         if len(self._outputs) > 0:
             self._logfragments['outputs'] = "\n".join(self._outputs)
             self._outputs.clear()
@@ -155,10 +226,35 @@ class GradlePlugin(object):
         for secname, content in rep.sections:
             self._logfragments[secname] = content
 
+    # noinspection PyUnusedLocal
+    @pytest.hookimpl(hookwrapper=True)
+    def pytest_fixture_setup(self, fixturedef, request):
+        # Fixtures with a broader scope are set up in the setup phase of the first test that uses them
+        if self._running_test and self._impact is not None:
+            self._impact.fixture_start()
+        start = timeit.default_timer()
+        yield
+        if self._running_test and self._impact is not None:
+            self._impact.fixture_stop(fixturedef.argname)
+        if self._running_test:
+            self._fixtures.append("%s\t%s\t%f" % (fixturedef.argname, fixturedef.scope,
+                                                   timeit.default_timer() - start))
+
+    @pytest.hookimpl(tryfirst=True)
+    def pytest_runtest_setup(self, item):
+        self._fixturenames = item.fixturenames
+
     # noinspection PyUnusedLocal
     def pytest_runtest_logfinish(self, nodeid):
         if self._running_test:
             self._running_test = False
+            if self._timeout_file is not None:
+                faulthandler.cancel_dump_traceback_later()
+            if self._impact is not None:
+                self._logfragments['covered_files'] = "\n".join(self._impact.stop(self._fixturenames))
+                self._fixturenames = ()
+            if self._fixtures:
+                self._logfragments['fixtures'] = "\n".join(self._fixtures)
             self.to_junit("runtest_logfinish", self._logfragments)
             self._logfragments.clear()
 
@@ -204,23 +300,37 @@ class GradlePlugin(object):
         """
         Writes data to the pytest-junit-engine.
 
-        The protocol is rather simple. A "START" message, followed by a couple of "Name: Value" pairs terminated
-        by an empty line. The "Message" and "Blocks" headers are mandatory, other headers may exist.
+        The text protocol is rather simple. A "START" line containing the message name and the number of
+        data-blocks, followed by the data-blocks and an "END" line.
 
-            *** START\n
-            Message: <message>\n
-            Blocks: <number-of-data-blocks\n
-            \n
+            *** START/<message>/<number-of-data-blocks>\n
             <data-blocks-see-below>
             *** END\n
 
         Each data-block:
 
-            <number-of-bytes>\n
+            <block-name>: <number-of-bytes>\n
             <binary-data>\n
-            \n
 
-        Text encodinng is UTF-8
+        When started with `--gradle-framing=binary`, the line `*** BINARY/1\n` is written once, followed by
+        binary frames. Each frame starts with a frame-type byte. Names of messages and blocks are sent only once
+        using a "name" frame (0x01) and referenced by their ID afterwards (0 for the first name, 1 for the
+        second, etc).
+
+            0x01 <varint length> <utf-8 name>
+            0x02 <varint message-name-id> <varint number-of-data-blocks> <data-blocks-see-below>
+
+        Each data-block:
+
+            <varint block-name-id> <varint number-of-bytes> <binary-data>
+
+        Varints are unsigned LEB128 encoded (7 bits per byte, least significant group first).
+
+        Text encoding is UTF-8
+
+        The messages are written to stdout or, when started with `--gradle-channel=HOST:PORT`, to a socket
+        connection to the pytest-junit-engine, which is authenticated by sending the token from the
+        `JUNITPYTEST_CHANNEL_TOKEN` environment variable as the first line.
         """
         if self.collect_only:
             return
@@ -228,18 +338,56 @@ class GradlePlugin(object):
         if not isinstance(strings, dict):
             raise Exception("'strings' must be a dict")
 
-        out = sys.stdout
-
-        out.write("*** START/{}/{}\n".format(message, len(strings)))
-
-        for k, v in strings.items():
-            utf = str(v).encode("utf-8")
-            out.write("{}: {}\n".format(k, len(utf)))
+        if self._channel is not None:
+            buffer = self._channel
+        else:
+            out = sys.stdout
+            # Flush anything that's still buffered in the text-layer, everything else goes to the binary buffer
             out.flush()
-            out.buffer.write(utf)
-            out.write("\n")
-        out.write("*** END\n")
-        out.flush()
+            buffer = out.buffer
+
+        if self._binary:
+            header = bytearray()
+            if self._binary_names is None:
+                self._binary_names = {}
+                header += b"*** BINARY/1\n"
+
+            message_id = self._binary_name(header, message)
+            blocks = []
+            for k, v in strings.items():
+                blocks.append((self._binary_name(header, k), str(v).encode("utf-8")))
+
+            header.append(0x02)
+            _write_varint(header, message_id)
+            _write_varint(header, len(blocks))
+            buffer.write(header)
+            for block_id, utf in blocks:
+                block_header = bytearray()
+                _write_varint(block_header, block_id)
+                _write_varint(block_header, len(utf))
+                buffer.write(block_header)
+                buffer.write(utf)
+        else:
+            buffer.write("*** START/{}/{}\n".format(message, len(strings)).encode("utf-8"))
+            for k, v in strings.items():
+                utf = str(v).encode("utf-8")
+                buffer.write("{}: {}\n".format(k, len(utf)).encode("utf-8"))
+                buffer.write(utf)
+                buffer.write(b"\n")
+            buffer.write(b"*** END\n")
+
+        buffer.flush()
+
+    def _binary_name(self, header, name):
+        name_id = self._binary_names.get(name)
+        if name_id is None:
+            name_id = len(self._binary_names)
+            self._binary_names[name] = name_id
+            utf = name.encode("utf-8")
+            header.append(0x01)
+            _write_varint(header, len(utf))
+            header += utf
+        return name_id
 
     # def pytest_logwarning(self, code, fslocation, message, nodeid):
     #     warnings = self.stats.setdefault("warnings", [])
@@ -339,6 +487,13 @@ class GradlePlugin(object):
 #         return None
 
 
+def _write_varint(buf, value):
+    while value > 0x7f:
+        buf.append((value & 0x7f) | 0x80)
+        value >>= 7
+    buf.append(value)
+
+
 def getreportopt(config):
     reportopts = ""
     reportchars = config.option.reportchars
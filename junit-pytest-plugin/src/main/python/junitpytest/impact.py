@@ -0,0 +1,120 @@
+# Copyright DataStax, Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+
+"""
+Records the Python source files below a root directory that are executed while a test runs, used by the
+pytest-junit-engine for test impact analysis (`--gradle-impact`).
+
+Only the start of a function (or module) is recorded, not individual lines. With Python 3.12 and newer,
+`sys.monitoring` is used, which disables the event for a code object after it has been seen once per test, so the
+overhead is close to zero. Older Python versions use a global trace function without line tracing.
+
+Fixtures with a broader scope than "function" are only set up during the first test that uses them. The files
+executed while setting up a fixture are therefore also remembered per fixture name and attributed to every later
+test that uses a fixture of that name.
+"""
+
+import os
+import sys
+import threading
+
+
+class FileTracker(object):
+    def __init__(self, root):
+        self._root = os.path.join(os.path.abspath(root), "")
+        self._files = set()
+        self._fixture_stack = []
+        self._fixture_files = {}
+        self._known = {}
+        self._monitoring = getattr(sys, "monitoring", None)
+        self._tool = None
+        if self._monitoring is not None:
+            for tool in (self._monitoring.COVERAGE_ID, self._monitoring.PROFILER_ID):
+                try:
+                    self._monitoring.use_tool_id(tool, "junitpytest")
+                except ValueError:
+                    # used by another tool, e.g. coverage.py
+                    continue
+                self._tool = tool
+                self._monitoring.register_callback(tool, self._monitoring.events.PY_START, self._on_py_start)
+                break
+
+    def _relative(self, filename):
+        rel = self._known.get(filename, False)
+        if rel is False:
+            path = os.path.abspath(filename)
+            rel = None
+            if path.startswith(self._root) and "site-packages" not in path and os.path.isfile(path):
+                rel = os.path.relpath(path, self._root).replace(os.sep, "/")
+            self._known[filename] = rel
+        return rel
+
+    def _add(self, rel):
+        self._files.add(rel)
+        for files in self._fixture_stack:
+            files.add(rel)
+
+    def _on_py_start(self, code, offset):
+        rel = self._relative(code.co_filename)
+        if rel:
+            self._add(rel)
+        return self._monitoring.DISABLE
+
+    # noinspection PyUnusedLocal
+    def _trace(self, frame, event, arg):
+        if event == "call":
+            rel = self._relative(frame.f_code.co_filename)
+            if rel:
+                self._add(rel)
+        return None
+
+    def start(self):
+        self._files = set()
+        del self._fixture_stack[:]
+        if self._tool is not None:
+            self._monitoring.restart_events()
+            self._monitoring.set_events(self._tool, self._monitoring.events.PY_START)
+        else:
+            threading.settrace(self._trace)
+            sys.settrace(self._trace)
+
+    def fixture_start(self):
+        """Starts recording the files executed while a fixture is set up, must be called after `start`."""
+        self._fixture_stack.append(set())
+        if self._tool is not None:
+            # Files of code objects already seen during the current test must be recorded for the fixture as well
+            self._monitoring.restart_events()
+
+    def fixture_stop(self, argname):
+        """Stops recording the files of the fixture started last and remembers them for the fixture name."""
+        if self._fixture_stack:
+            self._fixture_files.setdefault(argname, set()).update(self._fixture_stack.pop())
+
+    def stop(self, fixturenames=()):
+        """
+        Stops recording and returns the sorted paths of the executed files, relative to the root directory, including
+        the files executed while setting up the given fixtures in earlier tests.
+        """
+        if self._tool is not None:
+            self._monitoring.set_events(self._tool, 0)
+        else:
+            sys.settrace(None)
+            threading.settrace(None)
+        files = self._files
+        for argname in fixturenames:
+            files.update(self._fixture_files.get(argname, ()))
+        self._files = set()
+        del self._fixture_stack[:]
+        return sorted(files)
@@ -0,0 +1,47 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+plugins {
+    java
+}
+
+repositories {
+    mavenCentral()
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+description = "DataStax junitpytest - engine load tests against a fake pytest (not published)"
+
+dependencies {
+    // The load test lives in the package of the PytestExecutor to access package-private code.
+    // The engine's regular jar is disabled, so use the shadow-jar, which includes :common
+    implementation(project(":pytest-junit-engine", "shadowRuntimeElements"))
+}
+
+// ./gradlew :load-test:loadTest -PloadTest.args="--load-modules=100 --load-failure-ratio=0.1" -Ppytest.workers=4
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs the pytest-junit-engine against a fake pytest emitting synthetic test events"
+    classpath = sourceSets["main"].runtimeClasspath
+    main = "com.datastax.junitpytest.engine.execution.LoadTest"
+    systemProperty("loadtest.fakePytest", file("src/main/python/fake_pytest.py"))
+    // Engine configuration like in a Gradle build, e.g. -Ppytest.framing=text
+    project.properties.filterKeys { it.startsWith("pytest.") }.forEach { (key, value) -> systemProperty(key, value.toString()) }
+    project.findProperty("loadTest.args")?.let { args(it.toString().split(' ').filter { arg -> arg.isNotEmpty() }) }
+}
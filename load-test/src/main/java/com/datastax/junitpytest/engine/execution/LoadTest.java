@@ -0,0 +1,379 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import com.datastax.junitpytest.common.PytestCollectEntry;
+import com.datastax.junitpytest.engine.PytestClassInfo;
+import com.datastax.junitpytest.engine.RootDescriptor;
+import com.datastax.junitpytest.engine.TestCaseDescriptor;
+import com.datastax.junitpytest.engine.TestClassDescriptor;
+import org.junit.platform.engine.ConfigurationParameters;
+import org.junit.platform.engine.EngineExecutionListener;
+import org.junit.platform.engine.ExecutionRequest;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.reporting.ReportEntry;
+
+/**
+ * Runs the {@link PytestExecutor} against {@code fake_pytest.py}, which emits the messages of {@code pytest --gradle}
+ * for synthetic tests without running any Python test code, and reports the events per second received by the
+ * {@link EngineExecutionListener} and the heap usage.
+ * <p>
+ * Options are given as {@code --name=value}:
+ * <ul>
+ *     <li>{@code --fake-pytest} path to {@code fake_pytest.py}, defaults to the {@code loadtest.fakePytest} system
+ *     property</li>
+ *     <li>{@code --python} Python executable running {@code fake_pytest.py}, defaults to {@code python3}</li>
+ *     <li>{@code --runs} number of consecutive runs, the first runs warm up the JVM, defaults to {@code 3}</li>
+ *     <li>{@code --verbose=true} keeps the output of the engine, discarded by default</li>
+ *     <li>{@code --load-*} options of {@code fake_pytest.py}, e.g. {@code --load-modules}, which define the
+ *     synthetic tests and how they are reported</li>
+ * </ul>
+ * The engine is configured using the {@code pytest.*} system properties like in a Gradle build, e.g.
+ * {@code -Dpytest.workers=4}, {@code -Dpytest.framing=text} or {@code -Dpytest.eventChannel=socket}. The virtual
+ * environment is not set up, its {@code bin/pytest} just runs {@code fake_pytest.py}.
+ */
+public final class LoadTest
+{
+    private final Map<String, String> options = new LinkedHashMap<>();
+    private final List<String> loadOptions = new ArrayList<>();
+
+    private LoadTest(String[] args)
+    {
+        for (String arg : args)
+        {
+            int i = arg.indexOf('=');
+            if (!arg.startsWith("--") || i == -1)
+                throw new IllegalArgumentException("Expected --name=value, got '" + arg + "'");
+            if (arg.startsWith("--load-"))
+                loadOptions.add(arg);
+            options.put(arg.substring(2, i), arg.substring(i + 1));
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new LoadTest(args).run();
+    }
+
+    private String option(String name, String defaultValue)
+    {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int intOption(String name, int defaultValue)
+    {
+        return Integer.parseInt(option(name, Integer.toString(defaultValue)));
+    }
+
+    private void run() throws Exception
+    {
+        String fakePytest = option("fake-pytest", System.getProperty("loadtest.fakePytest"));
+        if (fakePytest == null)
+            throw new IllegalArgumentException("Path to fake_pytest.py not given, use --fake-pytest=<path>");
+
+        Path workDir = Files.createTempDirectory("junitpytest-load-");
+        Path binDir = Files.createDirectories(workDir.resolve("venv").resolve("bin"));
+        Path pytest = binDir.resolve("pytest");
+        Files.write(pytest,
+                    ("#!/bin/sh\nexec " + option("python", "python3") + " '" + Paths.get(fakePytest).toAbsolutePath() + "' \"$@\"\n").getBytes(StandardCharsets.UTF_8));
+        if (!pytest.toFile().setExecutable(true))
+            throw new IOException("Could not make " + pytest + " executable");
+
+        Map<String, String> config = new LinkedHashMap<>();
+        config.put("pytest.venv", binDir.getParent().toString());
+        config.put("pytest.frozenRequirements", workDir.resolve("frozen-requirements.txt").toString());
+        config.put("pytest.pytestOutputs", workDir.resolve("pytest-outputs").toString());
+        config.put("pytest.cwd", workDir.toString());
+        config.put("pytest.exec.virtualenv", "virtualenv");
+        config.put("pytest.exec.python", "python3");
+        for (String key : System.getProperties().stringPropertyNames())
+            if (key.startsWith("pytest."))
+                config.put(key, System.getProperty(key));
+        // fake_pytest.py cannot run in the daemon
+        config.put("pytest.daemon", "false");
+        int optionIndex = 0;
+        while (config.containsKey("pytest.option." + optionIndex))
+            optionIndex++;
+        for (String loadOption : loadOptions)
+            config.put("pytest.option." + optionIndex++, loadOption);
+
+        System.out.println("Load test with " + loadOptions + " and engine configuration " + config);
+
+        int runs = intOption("runs", 3);
+        boolean verbose = Boolean.parseBoolean(option("verbose", "false"));
+        try
+        {
+            for (int run = 1; run <= runs; run++)
+            {
+                Result result = runOnce(config, verbose);
+                System.out.printf("Run %d/%d: %s%n", run, runs, result);
+            }
+        }
+        finally
+        {
+            try (Stream<Path> paths = Files.walk(workDir))
+            {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private Result runOnce(Map<String, String> config, boolean verbose)
+    {
+        ConfigurationParameters configurationParameters = new ConfigurationParameters()
+        {
+            @Override
+            public Optional<String> get(String key)
+            {
+                return Optional.ofNullable(config.get(key));
+            }
+
+            @Override
+            public Optional<Boolean> getBoolean(String key)
+            {
+                return get(key).map(Boolean::valueOf);
+            }
+
+            @Override
+            public int size()
+            {
+                return config.size();
+            }
+        };
+        Testenv testenv = new Testenv(configurationParameters);
+        TestTimings timings = TestTimings.load(testenv.getTimingsFile());
+        TestDescriptor root = syntheticTests();
+        CountingListener listener = new CountingListener();
+        PytestExecutor executor = new PytestExecutor(new ExecutionRequest(root, listener, configurationParameters));
+
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        long heapBefore = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long[] gcBefore = gcCountAndTime();
+
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        if (!verbose)
+        {
+            PrintStream discard = new PrintStream(new OutputStream()
+            {
+                @Override
+                public void write(int b)
+                {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len)
+                {
+                }
+            });
+            System.setOut(discard);
+            System.setErr(discard);
+        }
+        long start = System.nanoTime();
+        try
+        {
+            executor.execute(testenv, timings, PytestExecutor.shardTestClasses(testenv, timings, root));
+        }
+        finally
+        {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        long nanos = System.nanoTime() - start;
+
+        long heapPeak = 0L;
+        for (MemoryPoolMXBean pool : heapPools)
+            heapPeak += pool.getPeakUsage().getUsed();
+        long heapAfter = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long[] gcAfter = gcCountAndTime();
+        return new Result(listener, nanos, heapBefore, heapPeak, heapAfter, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+    }
+
+    private static long[] gcCountAndTime()
+    {
+        long[] countAndTime = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            countAndTime[0] += Math.max(0L, gc.getCollectionCount());
+            countAndTime[1] += Math.max(0L, gc.getCollectionTime());
+        }
+        return countAndTime;
+    }
+
+    /**
+     * Builds the descriptors of the synthetic tests of {@code fake_pytest.py} like the discovery would, must match
+     * {@code Session.tests()} there.
+     */
+    private TestDescriptor syntheticTests()
+    {
+        int modules = intOption("load-modules", 10);
+        int classesPerModule = intOption("load-classes-per-module", 10);
+        int testsPerClass = intOption("load-tests-per-class", 100);
+        int params = intOption("load-params", 1);
+
+        RootDescriptor root = new RootDescriptor(UniqueId.forEngine("pytest"));
+        for (int m = 0; m < modules; m++)
+        {
+            String module = "load/module_" + m + "_test.py";
+            for (int c = 0; c < classesPerModule; c++)
+            {
+                String cls = "TestLoad" + (m * classesPerModule + c);
+                PytestClassInfo info = null;
+                TestClassDescriptor classDescriptor = null;
+                for (int t = 0; t < testsPerClass; t++)
+                {
+                    String method = "test_" + (t / params);
+                    String test = params > 1 ? method + "[p" + (t % params) + ']' : method;
+                    PytestCollectEntry entry = new PytestCollectEntry(module, cls, method, test);
+                    if (info == null)
+                    {
+                        info = PytestClassInfo.fromCollectEntry(entry);
+                        info.setModuleClassCount(classesPerModule);
+                        classDescriptor = TestClassDescriptor.createChild(root, info);
+                        root.addChild(classDescriptor);
+                    }
+                    info.addTest(method, test);
+                    classDescriptor.addChild(TestCaseDescriptor.createChild(classDescriptor, test));
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Counts the events reported by the engine, called by multiple pytest workers.
+     */
+    static final class CountingListener implements EngineExecutionListener
+    {
+        final LongAdder dynamic = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder started = new LongAdder();
+        final LongAdder successful = new LongAdder();
+        final LongAdder aborted = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder reportEntries = new LongAdder();
+
+        @Override
+        public void dynamicTestRegistered(TestDescriptor testDescriptor)
+        {
+            dynamic.increment();
+        }
+
+        @Override
+        public void executionSkipped(TestDescriptor testDescriptor, String reason)
+        {
+            skipped.increment();
+        }
+
+        @Override
+        public void executionStarted(TestDescriptor testDescriptor)
+        {
+            started.increment();
+        }
+
+        @Override
+        public void executionFinished(TestDescriptor testDescriptor, TestExecutionResult testExecutionResult)
+        {
+            switch (testExecutionResult.getStatus())
+            {
+                case SUCCESSFUL:
+                    successful.increment();
+                    break;
+                case ABORTED:
+                    aborted.increment();
+                    break;
+                default:
+                    failed.increment();
+                    break;
+            }
+        }
+
+        @Override
+        public void reportingEntryPublished(TestDescriptor testDescriptor, ReportEntry entry)
+        {
+            reportEntries.increment();
+        }
+
+        long events()
+        {
+            return dynamic.sum() + skipped.sum() + started.sum() + successful.sum() + aborted.sum() + failed.sum() + reportEntries.sum();
+        }
+    }
+
+    static final class Result
+    {
+        private final CountingListener listener;
+        private final long nanos;
+        private final long heapBefore;
+        private final long heapPeak;
+        private final long heapAfter;
+        private final long gcCount;
+        private final long gcMillis;
+
+        Result(CountingListener listener, long nanos, long heapBefore, long heapPeak, long heapAfter, long gcCount, long gcMillis)
+        {
+            this.listener = listener;
+            this.nanos = nanos;
+            this.heapBefore = heapBefore;
+            this.heapPeak = heapPeak;
+            this.heapAfter = heapAfter;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        @Override
+        public String toString()
+        {
+            double seconds = nanos / 1_000_000_000d;
+            return String.format("%.3f s, %d events (%.0f events/s), started %d, successful %d, failed %d, aborted %d, dynamic %d, report entries %d%n" +
+                                 "    heap before %d MB, peak %d MB, after %d MB, %d GCs taking %d ms",
+                                 seconds, listener.events(), listener.events() / seconds,
+                                 listener.started.sum(), listener.successful.sum(), listener.failed.sum(),
+                                 listener.aborted.sum(), listener.dynamic.sum(), listener.reportEntries.sum(),
+                                 heapBefore >> 20, heapPeak >> 20, heapAfter >> 20, gcCount, gcMillis);
+        }
+    }
+}
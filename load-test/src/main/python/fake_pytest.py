@@ -0,0 +1,226 @@
+# Copyright DataStax, Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+
+"""
+Stand-in for `pytest --gradle` used by the load tests of the pytest-junit-engine.
+
+Instead of collecting and running tests, it emits the messages of the `--gradle` plugin (see
+`junitpytest.gradle.GradlePlugin.to_junit` for the protocol) for a synthetic set of tests as fast as possible, so the
+load tests measure the overhead of the pytest-junit-engine without the cost of real Python tests. Neither pytest nor
+the junit-pytest-plugin need to be installed.
+
+The synthetic tests are `load/module_<M>_test.py::TestLoad<C>::test_<T>[p<P>]`, the `--load-*` options define their
+number and how they are reported. The given test arguments (modules, classes, methods or tests) select the tests to
+report, like for pytest. Whether a test fails or is re-run only depends on its node-id and `--load-seed`, so a
+relaunched process reports the remaining tests the same way.
+"""
+
+import argparse
+import os
+import socket
+import sys
+import zlib
+
+
+def main(argv=None):
+    parser = argparse.ArgumentParser(prog="fake_pytest.py")
+    parser.add_argument("--gradle", action="store_true", default=False)
+    parser.add_argument("--gradle-framing", default="text", choices=("text", "binary"))
+    parser.add_argument("--gradle-channel", default=None, metavar="HOST:PORT")
+    parser.add_argument("--gradle-impact", action="store_true", default=False)
+    parser.add_argument("--gradle-test-timeout", type=int, default=0)
+    parser.add_argument("--load-modules", type=int, default=10,
+                        help="Number of test modules")
+    parser.add_argument("--load-classes-per-module", type=int, default=10,
+                        help="Number of test classes per module")
+    parser.add_argument("--load-tests-per-class", type=int, default=100,
+                        help="Number of tests per class")
+    parser.add_argument("--load-params", type=int, default=1,
+                        help="Number of parameters of each test method, 1 for plain test methods")
+    parser.add_argument("--load-block-size", type=int, default=0,
+                        help="Number of bytes of captured output reported for each test")
+    parser.add_argument("--load-failure-ratio", type=float, default=0.0,
+                        help="Ratio of tests reported as failed (0 to 1)")
+    parser.add_argument("--load-rerun-ratio", type=float, default=0.0,
+                        help="Ratio of tests reported as re-run (0 to 1)")
+    parser.add_argument("--load-reruns", type=int, default=1,
+                        help="Number of re-runs of a re-run test")
+    parser.add_argument("--load-rerun-mode", default="repeat", choices=("repeat", "flaky"),
+                        help="'repeat' reports each failed attempt with a result like pytest-rerunfailures, "
+                             "'flaky' reports them without a result like the flaky plugin")
+    parser.add_argument("--load-seed", type=int, default=0,
+                        help="Seed for choosing the failed and re-run tests")
+    args, unknown = parser.parse_known_args(argv)
+    if not args.gradle:
+        parser.error("--gradle is required")
+
+    selection = [arg for arg in unknown if not arg.startswith("-")]
+
+    if args.gradle_channel:
+        host, port = args.gradle_channel.rsplit(":", 1)
+        channel_socket = socket.create_connection((host, int(port)))
+        out = channel_socket.makefile("wb", buffering=65536)
+        out.write("{}\n".format(os.environ.pop("JUNITPYTEST_CHANNEL_TOKEN", "")).encode("utf-8"))
+    else:
+        channel_socket = None
+        out = os.fdopen(os.dup(1), "wb", 65536)
+
+    writer = Writer(out, args.gradle_framing == "binary")
+    try:
+        Session(args, writer).run(selection)
+    finally:
+        out.close()
+        if channel_socket is not None:
+            channel_socket.close()
+
+
+class Writer(object):
+    """
+    Writes the messages using the same framing as `junitpytest.gradle.GradlePlugin.to_junit`, but does not flush
+    after every message.
+    """
+
+    def __init__(self, out, binary):
+        self.out = out
+        self.binary = binary
+        self.names = None
+
+    def message(self, message, strings):
+        out = self.out
+        if self.binary:
+            header = bytearray()
+            if self.names is None:
+                self.names = {}
+                header += b"*** BINARY/1\n"
+            # Name frames must precede the message frame using them
+            message_id = self._name(header, message)
+            frame = bytearray()
+            frame.append(0x02)
+            _write_varint(frame, message_id)
+            _write_varint(frame, len(strings))
+            for k, v in strings.items():
+                utf = v.encode("utf-8")
+                _write_varint(frame, self._name(header, k))
+                _write_varint(frame, len(utf))
+                frame += utf
+            out.write(header)
+            out.write(frame)
+        else:
+            out.write("*** START/{}/{}\n".format(message, len(strings)).encode("utf-8"))
+            for k, v in strings.items():
+                utf = v.encode("utf-8")
+                out.write("{}: {}\n".format(k, len(utf)).encode("utf-8"))
+                out.write(utf)
+                out.write(b"\n")
+            out.write(b"*** END\n")
+
+    def _name(self, header, name):
+        name_id = self.names.get(name)
+        if name_id is None:
+            name_id = len(self.names)
+            self.names[name] = name_id
+            utf = name.encode("utf-8")
+            header.append(0x01)
+            _write_varint(header, len(utf))
+            header += utf
+        return name_id
+
+
+class Session(object):
+    def __init__(self, args, writer):
+        self.args = args
+        self.writer = writer
+        self.output = "x" * (args.load_block_size - 1) + "\n" if args.load_block_size > 0 else None
+        self.failed = 0
+
+    def run(self, selection):
+        self.writer.message("sessionstart", dict(
+            platform=sys.platform,
+            info="platform {} -- Python {}, fake pytest for load tests".format(sys.platform, sys.version.split()[0]),
+        ))
+        for module, cls, method, test in self.tests(selection):
+            self.report(module, cls, method, test)
+        self.writer.message("sessionfinish", dict(exitstatus="1" if self.failed > 0 else "0"))
+
+    def tests(self, selection):
+        """
+        Yields `(module, class, method, test)` for the synthetic tests matching the selection, all tests if there is
+        no selection.
+        """
+        args = self.args
+        selected = set(selection)
+        for m in range(args.load_modules):
+            module = "load/module_{}_test.py".format(m)
+            module_selected = not selected or module in selected
+            for c in range(args.load_classes_per_module):
+                cls = "TestLoad{}".format(m * args.load_classes_per_module + c)
+                class_id = "{}::{}".format(module, cls)
+                class_selected = module_selected or class_id in selected
+                for t in range(args.load_tests_per_class):
+                    method = "test_{}".format(t // args.load_params)
+                    test = "{}[p{}]".format(method, t % args.load_params) if args.load_params > 1 else method
+                    if (class_selected
+                            or "{}::{}".format(class_id, method) in selected
+                            or "{}::{}".format(class_id, test) in selected):
+                        yield module, cls, method, test
+
+    def chosen(self, nodeid, kind, ratio):
+        if ratio <= 0.0:
+            return False
+        key = "{}/{}/{}".format(self.args.load_seed, kind, nodeid).encode("utf-8")
+        return (zlib.crc32(key) & 0xffffffff) < ratio * 0x100000000
+
+    def report(self, module, cls, method, test):
+        args = self.args
+        nodeid = "{}::{}::{}".format(module, cls, test)
+        domain = "{}.{}".format(cls, test)
+        start = dict(nodeid=nodeid, fspath=module, line_number="42", domain=domain)
+
+        attempts = 1 + (args.load_reruns if self.chosen(nodeid, "rerun", args.load_rerun_ratio) else 0)
+        failed = self.chosen(nodeid, "failure", args.load_failure_ratio)
+        for attempt in range(attempts):
+            self.writer.message("runtest_logstart", start)
+            finish = dict(nodeid=nodeid, fspath=module, line_number="42", domain=domain,
+                          duration_setup="0.000010", duration_call="0.000100", duration_teardown="0.000010")
+            if self.output is not None:
+                finish["Captured stdout call"] = self.output
+            last = attempt == attempts - 1
+            if last and not failed:
+                finish["result_category"] = "passed"
+                finish["result_word"] = "PASSED"
+            elif not last and args.load_rerun_mode == "flaky":
+                pass
+            else:
+                if last:
+                    self.failed += 1
+                finish["result_category"] = "failed"
+                finish["result_word"] = "FAILED"
+                finish["longrepr_msg"] = "AssertionError: synthetic failure"
+                finish["excinfo_msg"] = "synthetic failure"
+                finish["excinfo_path"] = module
+                finish["excinfo_line_number"] = "42"
+                finish["excinfo_traceback"] = "{}:42: in {}\n    assert False\nE   AssertionError".format(module, method)
+            self.writer.message("runtest_logfinish", finish)
+
+
+def _write_varint(buf, value):
+    while value > 0x7f:
+        buf.append((value & 0x7f) | 0x80)
+        value >>= 7
+    buf.append(value)
+
+
+if __name__ == "__main__":
+    main()
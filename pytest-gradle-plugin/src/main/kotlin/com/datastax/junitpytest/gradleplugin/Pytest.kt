@@ -69,6 +69,8 @@ open class Pytest
         }
         jvmArgumentProviders.add(CmdLineArgs())
         outputs.upToDateWhen { false }
+        // Test JVMs merge their fixture costs into the report, start with an empty one
+        doFirst { fixtureReport.get().asFile.delete() }
     }
 
     inner class CmdLineArgs : CommandLineArgumentProvider {
@@ -78,6 +80,22 @@ open class Pytest
                     "-Dpytest.debug=${verbose.get()}",
                     "-Dpytest.debug=${debug.get()}",
                     "-Dpytest.keepOutputForPassed=${keepOutputsForPassedTests.get()}",
+                    "-Dpytest.outputMode=${outputMode.get()}",
+                    "-Dpytest.outputThreads=${outputThreads.get()}",
+                    "-Dpytest.framing=${framing.get()}",
+                    "-Dpytest.eventChannel=${eventChannel.get()}",
+                    "-Dpytest.workers=${workers.get()}",
+                    "-Dpytest.maxFailures=${maxFailures.get()}",
+                    "-Dpytest.maxFailureRate=${maxFailureRate.get()}",
+                    "-Dpytest.testTimeout=${testTimeout.get()}",
+                    "-Dpytest.resume=${resume.get()}",
+                    "-Dpytest.sharding=${sharding.get()}",
+                    "-Dpytest.timings=${timingsFile.get().asFile}",
+                    "-Dpytest.impact=${impactAnalysis.get()}",
+                    "-Dpytest.impactFile=${impactFile.get().asFile}",
+                    "-Dpytest.fixtureReport=${fixtureReport.get().asFile}",
+                    "-Dpytest.daemon=${daemon.get()}",
+                    "-Dpytest.daemon.idleTimeout=${daemonIdleTimeout.get()}",
                     "-Dpytest.collectedTestsFile=${collectedTestsFile.get().asFile}",
                     "-Dpytest.pytestOutputs=${pytestOutputs.get().asFile}",
                     "-Dpytest.frozenRequirements=${frozenRequirements.get().asFile}",
@@ -85,6 +103,10 @@ open class Pytest
                     "-Dpytest.exec.virtualenv=${pytestExtension.virtualenvExecutable.get().joinToString(",")}",
                     "-Dpytest.exec.python=${pytestExtension.pythonExecutable.get().joinToString(",")}",
                     "-Dpytest.cwd=${project.extensions.getByType(PytestExtension::class).pytestDirectorySet.sourceDirectories.singleFile}")
+            if (wheelhouse.isPresent)
+                l.add("-Dpytest.wheelhouse=${wheelhouse.get().asFile}")
+            if (venvCacheDirectory.isPresent)
+                l.add("-Dpytest.venvCache=${venvCacheDirectory.get().asFile}")
             pytestOptions.get().forEachIndexed { index, s ->
                 l.add("-Dpytest.option.$index=$s")
             }
@@ -112,6 +134,137 @@ open class Pytest
     @Internal
     val keepOutputsForPassedTests = project.objects.property(Boolean::class).convention(false)
 
+    /**
+     * How the output files registered by tests end up in [pytestOutputs]: `copy` (the default), `hardlink`,
+     * `reflink` (copy-on-write clone, where the file system supports it) or `move`. `hardlink` and `move` only
+     * work within the same file system, all modes fall back to `copy`.
+     */
+    @Internal
+    val outputMode = project.objects.property(String::class).convention("copy")
+
+    /**
+     * Number of threads collecting the output files registered by tests in the background, `0` collects them
+     * synchronously before the next message from pytest is handled.
+     */
+    @Internal
+    val outputThreads = project.objects.property(Int::class).convention(2)
+
+    /**
+     * Framing of the messages sent from pytest to the pytest-junit-engine, either `binary` (the default) or `text`.
+     */
+    @Internal
+    val framing = project.objects.property(String::class).convention("binary")
+
+    /**
+     * How the pytest-plugin sends its messages to the pytest-junit-engine, either `stdout` (default) or
+     * `socket` (a dedicated loopback connection, so output written by tests directly to stdout cannot interfere).
+     */
+    @Internal
+    val eventChannel = project.objects.property(String::class).convention("stdout")
+
+    /**
+     * Number of `pytest` processes started concurrently by each test JVM. The test classes are distributed across
+     * the workers, each worker gets its ID (starting at `0`) in the `JUNITPYTEST_WORKER` environment variable.
+     */
+    @Internal
+    val workers = project.objects.property(Int::class).convention(1)
+
+    /**
+     * Abort the test run after this number of failed tests, `0` (the default) for no limit. `pytest` is terminated
+     * and all tests that have not been run are reported as aborted.
+     */
+    @Internal
+    val maxFailures = project.objects.property(Int::class).convention(0)
+
+    /**
+     * Abort the test run when the rate of failed tests (`0.0` to `1.0`) exceeds this value, evaluated after at
+     * least 20 tests, `0.0` (the default) for no limit.
+     */
+    @Internal
+    val maxFailureRate = project.objects.property(Double::class).convention(0.0)
+
+    /**
+     * Maximum duration of a single test in seconds, `0` (the default) for no limit. When a test runs longer, the
+     * Python stacks of all threads are dumped to stderr, `pytest` is terminated and the test is reported as failed.
+     */
+    @Internal
+    val testTimeout = project.objects.property(Int::class).convention(0)
+
+    /**
+     * Relaunch `pytest` for the tests that have not been run yet, after it crashed, was killed or timed out in
+     * the middle of a test run. The test that was running is reported as failed.
+     */
+    @Internal
+    val resume = project.objects.property(Boolean::class).convention(false)
+
+    /**
+     * How the test classes are distributed across the [workers], either `duration` (the default, balanced using
+     * the durations of previous runs from [timingsFile]) or `round-robin`.
+     */
+    @Internal
+    val sharding = project.objects.property(String::class).convention("duration")
+
+    /**
+     * File with the durations of the test classes and test cases of previous runs, updated after each run.
+     * Defaults to `build/pytest-timings/<task-name>.txt`.
+     */
+    @LocalState
+    val timingsFile = project.objects.fileProperty().convention(project.layout.buildDirectory.file("pytest-timings/${name}.txt"))
+
+    /**
+     * Test impact analysis: `off` (the default), `record` (record the Python files covered by each test in
+     * [impactFile]) or `select` (record and only run the tests whose covered files changed, that did not pass
+     * or that are new). Defaults to the value of the project property `pytest.impact`, if present.
+     */
+    @Internal
+    val impactAnalysis = project.objects.property(String::class).convention(project.providers.gradleProperty("pytest.impact").orElse("off"))
+
+    /**
+     * File with the Python files covered by each test, used for test impact analysis.
+     * Defaults to `build/pytest-impact/<task-name>.txt`.
+     */
+    @LocalState
+    val impactFile = project.objects.fileProperty().convention(project.layout.buildDirectory.file("pytest-impact/${name}.txt"))
+
+    /**
+     * Report with the setup costs of the pytest fixtures aggregated over all tests, sorted by the total setup
+     * time. Defaults to `build/reports/pytest-fixtures/<task-name>.txt`.
+     */
+    @OutputFile
+    val fixtureReport = project.objects.fileProperty().convention(project.layout.buildDirectory.file("reports/pytest-fixtures/${name}.txt"))
+
+    /**
+     * Run the tests in a long-lived pytest daemon, which keeps pytest, the plugins and the test modules imported
+     * between test runs. Each run is executed in a process forked from the daemon. The daemon is restarted, when
+     * an imported module in the pytest directory changes.
+     */
+    @Internal
+    val daemon = project.objects.property(Boolean::class).convention(project.hasProperty("pytest.daemon"))
+
+    /**
+     * The pytest daemon exits after this number of seconds without a test run.
+     */
+    @Internal
+    val daemonIdleTimeout = project.objects.property(Int::class).convention(900)
+
+    /**
+     * Optional: directory with the wheels of the frozen requirements built by [PytestCreateVirtualenv], used to
+     * install the frozen requirements without network access.
+     */
+    @InputDirectory
+    @Optional
+    @PathSensitive(PathSensitivity.RELATIVE)
+    val wheelhouse = project.objects.directoryProperty()
+
+    /**
+     * Optional: machine-wide directory shared by all projects and test JVMs, which holds virtual environments
+     * keyed by the Python interpreter, the frozen requirements, pip options and source requirements. When set,
+     * the tests use the matching virtual environment from this directory instead of [venvDirectory].
+     * Defaults to the value of the project property `pytest.venvCache`, if present.
+     */
+    @Internal
+    val venvCacheDirectory = project.objects.directoryProperty().convention(project.providers.gradleProperty("pytest.venvCache").map { project.layout.projectDirectory.dir(it) })
+
     /**
      * Enable internal debug information for the pytest-junit-engine.
      */
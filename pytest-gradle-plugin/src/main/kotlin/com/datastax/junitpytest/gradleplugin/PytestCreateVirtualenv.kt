@@ -33,6 +33,7 @@ import javax.inject.Inject
 /**
  * Creates the Python virtual environment and installs the requirements including the pytest-plugin.
  * Creates a text file containing the "frozen requirements" (from {@code pip freeze}.
+ * Optionally builds the wheels of the frozen requirements into a "wheelhouse" directory.
  */
 @CacheableTask
 open class PytestCreateVirtualenv
@@ -45,7 +46,14 @@ open class PytestCreateVirtualenv
         val frozenRequirements: RegularFileProperty,
 
         @Internal
-        val venvDirectory: DirectoryProperty
+        val venvDirectory: DirectoryProperty,
+
+        /**
+         * Optional: directory receiving the wheels of all frozen requirements.
+         */
+        @OutputDirectory
+        @Optional
+        val wheelhouseDirectory: DirectoryProperty
 ) : DefaultTask() {
 
     @TaskAction
@@ -103,5 +111,8 @@ open class PytestCreateVirtualenv
         frozenRequirements.get().asFile.writeText(requirementsBuffer.toString("UTF-8").lineSequence().filter { ln ->
             pytestExtension.sourceRequirementsTasks.get().stream().noneMatch { taskProv -> taskProv.get().requirementsLineMatches(ln) }
         }.joinToString("\n"))
+
+        if (wheelhouseDirectory.isPresent)
+            virtualEnv.buildWheelhouse(wheelhouseDirectory.get().asFile.toPath(), pytestPluginArchive.toPath())
     }
 }
\ No newline at end of file
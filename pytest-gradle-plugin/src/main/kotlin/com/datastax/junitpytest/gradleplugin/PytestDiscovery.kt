@@ -15,7 +15,10 @@
  */
 package com.datastax.junitpytest.gradleplugin
 
+import com.datastax.junitpytest.common.CollectedTestsIndex
 import com.datastax.junitpytest.common.PytestCollectEntry
+import com.datastax.junitpytest.common.PytestCollectionCache
+import com.datastax.junitpytest.common.PytestVersion
 import org.gradle.api.DefaultTask
 import org.gradle.api.GradleException
 import org.gradle.api.file.DirectoryProperty
@@ -29,8 +32,15 @@ import org.objectweb.asm.Opcodes.*
 import org.objectweb.asm.Type
 import java.io.*
 import java.nio.file.Paths
+import java.security.MessageDigest
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 import javax.inject.Inject
 
+private const val maxModulesForPartialCollection = 500
+
 @CacheableTask
 open class PytestDiscovery
 @Inject constructor(
@@ -73,6 +83,34 @@ open class PytestDiscovery
     @OutputDirectory
     val outputDirectory = project.objects.directoryProperty().convention(pytestSource.destinationDirectory)
 
+    /**
+     * Per-module cache of the collected tests, so only changed modules need to be collected again.
+     * Defaults to `build/pytest-collection-cache/<task-name>.txt`.
+     */
+    @LocalState
+    val collectionCacheFile = project.objects.fileProperty().convention(project.layout.buildDirectory.file("pytest-collection-cache/${name}.txt"))
+
+    /**
+     * List of the class files generated by the last run, used to delete the class files of Python classes that
+     * disappeared. Defaults to `build/pytest-collection-cache/<task-name>.classes`.
+     */
+    @LocalState
+    val generatedClassesFile = project.objects.fileProperty().convention(project.layout.buildDirectory.file("pytest-collection-cache/${name}.classes"))
+
+    /**
+     * The frozen requirements, only used to detect changes of the installed pytest plugins for [collectionCacheFile].
+     */
+    @Internal
+    val frozenRequirements = project.objects.fileProperty()
+
+    /**
+     * Number of concurrent `pytest --collect-only` processes for a full collection.
+     *
+     * Same property as [PytestExtension.collectParallelism].
+     */
+    @Internal
+    val collectParallelism = project.objects.property(Int::class).convention(project.extensions.getByType(PytestExtension::class).collectParallelism)
+
     fun sourceDirectory(): File {
         return pytestSource.sourceDirectories.singleFile
     }
@@ -83,69 +121,228 @@ open class PytestDiscovery
 
         val pytestDir = sourceDirectory()
 
+        val cache = PytestCollectionCache.load(pytestDir.toPath(), collectionCacheFile.get().asFile.toPath(), collectionConfigKey(pytestDir))
+        val pythonFiles = pytestSource.asFileTree.matching { include("**/*.py") }.files
+                .map { f -> pytestDir.toPath().relativize(f.toPath()).toString().replace(File.separatorChar, '/') }
+        var modules = cache.modulesToCollect(pythonFiles)
+        if (modules != null && modules.size > maxModulesForPartialCollection)
+            modules = null
+
+        val output = when {
+            modules == null -> collectAll(pytestDir, pythonFiles)
+            modules.isEmpty() -> listOf()
+            else -> collect(pytestDir, modules)
+        }
+        cache.collected(output, modules == null)
+        logger.info("Collected ${if (modules == null) "all" else modules.size.toString()} modules for $name")
+
         outputFile.parentFile.mkdirs()
-        val stderr = ByteArrayOutputStream()
-        FileOutputStream(outputFile).use {
-            val outStream = BufferedOutputStream(it)
-
-            val venvDir = venvDirectory.get().asFile
-
-            val modifiedPath = "${venvDir}${File.separator}bin${File.pathSeparator}${System.getenv("PATH")}"
-
-            val execResult = project.exec {
-                workingDir = pytestDir
-                environment("PATH", modifiedPath)
-                executable = "${venvDir}${File.separator}bin${File.separator}pytest"
-                args = listOf("--collect-only",
-                        "--gradle") + pytestOptions.get()
-                environment(pytestEnvironment.get())
-                standardOutput = outStream
-                errorOutput = stderr
-                isIgnoreExitValue = true
+        val collectedTests = cache.collectedTests().joinToString("") { "$it\n" }
+        val collectedTestsChanged = !outputFile.isFile || outputFile.readText() != collectedTests
+        if (collectedTestsChanged)
+            outputFile.writeText(collectedTests)
+        cache.save()
+
+        val collectEntries = cache.collectedTests().mapNotNull { line -> PytestCollectEntry.parse(line) }
+        if (collectedTestsChanged || CollectedTestsIndex.open(outputFile.toPath()) == null)
+            CollectedTestsIndex.write(CollectedTestsIndex.indexFileFor(outputFile.toPath()), collectEntries, outputFile.toPath())
+
+        val filesAndMethods: MutableMap<String, MutableList<PytestCollectEntry>> = mutableMapOf()
+        collectEntries.forEach { entry ->
+            filesAndMethods.computeIfAbsent(entry.fullyQualifiedClassName) { mutableListOf() }.add(entry)
+        }
+
+        val outputDir = outputDirectory.get().asFile
+        val written = AtomicInteger()
+        // ClassWriter instances are not shared, so the class files can be generated concurrently
+        filesAndMethods.entries.parallelStream().forEach { (className, entries) ->
+            val outFile = outputDir.resolve("${className.replace('.', '/')}.class")
+            val bytes = generateClass(className, entries)
+            // Do not touch unchanged class files
+            if (!outFile.isFile || outFile.length() != bytes.size.toLong() || !outFile.readBytes().contentEquals(bytes)) {
+                outFile.parentFile.mkdirs()
+                outFile.writeBytes(bytes)
+                written.incrementAndGet()
+            }
+        }
+
+        // Delete the class files generated by the previous run for Python classes that disappeared. Only the files
+        // recorded by this task are considered, because the output directory is shared with other tasks.
+        val classFiles = filesAndMethods.keys.map { className -> "${className.replace('.', '/')}.class" }.sorted()
+        val manifest = generatedClassesFile.get().asFile
+        var deleted = 0
+        if (manifest.isFile) {
+            (manifest.readLines().toSet() - classFiles).forEach { stale ->
+                if (outputDir.resolve(stale).delete())
+                    deleted++
+            }
+        }
+        manifest.parentFile.mkdirs()
+        manifest.writeText(classFiles.joinToString("") { "$it\n" })
+
+        logger.info("Generated ${filesAndMethods.size} class files for $name, ${written.get()} written, $deleted stale deleted")
+    }
+
+    private fun generateClass(className: String, entries: List<PytestCollectEntry>): ByteArray {
+        val methods = entries.map { e -> e.method }.toSortedSet()
+
+        val cw = ClassWriter(ClassWriter.COMPUTE_MAXS.or(ClassWriter.COMPUTE_FRAMES))
+        cw.visit(V1_8, ACC_PUBLIC, className.replace('.', '/'), null, "java/lang/Object", null)
+        cw.visitSource(Paths.get(entries[0].file).fileName.toString(), null)
+
+        val ctor = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null)
+        ctor.visitMaxs(2, 1)
+        ctor.visitVarInsn(ALOAD, 0) // push `this` to the operand stack
+        ctor.visitMethodInsn(INVOKESPECIAL, Type.getInternalName(Any::class.java), "<init>", "()V", false) // call the constructor of super class
+        ctor.visitInsn(RETURN)
+        ctor.visitEnd()
+        methods.forEach { method ->
+            val mv = cw.visitMethod(ACC_PUBLIC, method, "()V", null, null)
+            mv.visitMaxs(1, 1)
+            mv.visitInsn(RETURN)
+            mv.visitEnd()
+        }
+        cw.visitEnd()
+        return cw.toByteArray()
+    }
+
+    /**
+     * Collects all tests, either using a single `pytest` process or, if [collectParallelism] is greater than 1,
+     * using concurrent `pytest` processes that each collect a partition of the top-level directories.
+     */
+    private fun collectAll(pytestDir: File, pythonFiles: List<String>): List<String> {
+        val topLevelDirs = (pytestDir.listFiles() ?: arrayOf<File>()).filter { it.isDirectory }.map { it.name }.sorted()
+        val partitions = partitionTopLevelDirs(pytestDir, pythonFiles, topLevelDirs)
+                ?: return collect(pytestDir, listOf())
+
+        // Each partition runs the same pytest command as a serial collection (so the rootdir, conftest.py files,
+        // ini options and ignores are the same), but ignores the top-level directories of the other partitions.
+        // The top-level files are collected by the first partition.
+        val topLevelFiles = pythonFiles.filter { !it.contains('/') }
+        val executor = Executors.newFixedThreadPool(partitions.size)
+        try {
+            val futures = partitions.mapIndexed { index, partition ->
+                val ignores = topLevelDirs.filter { !partition.contains(it) } + (if (index == 0) listOf() else topLevelFiles)
+                executor.submit(Callable { collect(pytestDir, ignores.map { "--ignore=$it" }) })
+            }
+            val outputs = futures.map { future ->
+                try {
+                    future.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause!!
+                }
             }
 
-            outStream.flush()
+            logger.info("Collected tests for $name using ${partitions.size} concurrent pytest processes")
 
-            if (execResult.exitValue != 0) {
-                throw GradleException("pytest discovery failed - exit code = ${execResult.exitValue}.\n" +
-                        "command: ${venvDir}${File.separator}bin${File.separator}pytest --collect-only --gradle ${pytestOptions.get().joinToString(" ")}\n" +
-                        "stderr: $stderr")
+            return mergePartitions(outputs, topLevelDirs) ?: run {
+                logger.warn("Cannot map the tests collected by concurrent pytest processes to the top-level directories, falling back to a single pytest process")
+                collect(pytestDir, listOf())
             }
+        } finally {
+            executor.shutdownNow()
         }
+    }
 
-        val filesAndMethods: MutableMap<String, MutableList<PytestCollectEntry>> = mutableMapOf()
-        BufferedReader(outputFile.reader()).use {
-            it.lines().forEach { line ->
+    /**
+     * Distributes the top-level directories across at most [collectParallelism] partitions, balanced by the
+     * number of Python files. Returns `null`, if the collection cannot (or should not) be partitioned.
+     */
+    private fun partitionTopLevelDirs(pytestDir: File, pythonFiles: List<String>, topLevelDirs: List<String>): List<Set<String>>? {
+        val parallelism = collectParallelism.get()
+        if (parallelism <= 1)
+            return null
+
+        val filesPerDir = pythonFiles.filter { it.contains('/') }.groupingBy { it.substringBefore('/') }.eachCount()
+        if (filesPerDir.size < 2)
+            return null
+
+        // Explicit test paths (command line or 'testpaths' ini option) or a rootdir above the pytest directory
+        // would make the partitions collect different tests or use different node IDs than a serial collection.
+        if (pytestOptions.get().any { !it.startsWith("-") && pytestDir.resolve(it).exists() })
+            return null
+        val iniFiles = listOf("pytest.ini", "tox.ini", "setup.cfg", "pyproject.toml")
+        if (iniFiles.map { pytestDir.resolve(it) }.any { it.isFile && it.readText().contains("testpaths") })
+            return null
+        if (generateSequence(pytestDir.absoluteFile.parentFile) { it.parentFile }.any { dir -> (iniFiles + "setup.py").any { dir.resolve(it).isFile } })
+            return null
+
+        val partitions = List(minOf(parallelism, filesPerDir.size)) { mutableSetOf<String>() }
+        val weights = IntArray(partitions.size)
+        filesPerDir.entries.sortedWith(compareByDescending<Map.Entry<String, Int>> { it.value }.thenBy { it.key }).forEach { (dir, count) ->
+            val lightest = weights.indices.minBy { weights[it] }!!
+            partitions[lightest].add(dir)
+            weights[lightest] += count
+        }
+        // Directories without (known) Python files are collected by the first partition
+        partitions[0].addAll(topLevelDirs.filter { !filesPerDir.containsKey(it) })
+        return partitions
+    }
+
+    /**
+     * Merges the outputs of the partitions in the order of a serial collection: the top-level files first, then the
+     * top-level directories in alphabetical order (pytest visits directories "breadth first" and sorted).
+     */
+    private fun mergePartitions(outputs: List<List<String>>, topLevelDirs: List<String>): List<String>? {
+        val byTopLevel = mutableMapOf<String, MutableList<String>>()
+        outputs.forEach { output ->
+            output.forEach { line ->
                 val entry = PytestCollectEntry.parse(line)
                 if (entry != null) {
-                    filesAndMethods.computeIfAbsent(entry.fullyQualifiedClassName) { mutableListOf() }.add(entry)
+                    val topLevel = if (entry.file.contains('/')) entry.file.substringBefore('/') else ""
+                    if (topLevel.isNotEmpty() && !topLevelDirs.contains(topLevel))
+                        return null
+                    byTopLevel.computeIfAbsent(topLevel) { mutableListOf() }.add(line)
                 }
             }
         }
+        return (listOf("") + topLevelDirs).flatMap { byTopLevel[it] ?: listOf<String>() }
+    }
 
-        filesAndMethods.forEach { (className, entries) ->
-            val outFile = outputDirectory.get().file("${className.replace('.', '/')}.class").asFile
-            outFile.parentFile.mkdirs()
-            val methods = entries.map { e -> e.method }.toSortedSet()
-
-            val cw = ClassWriter(ClassWriter.COMPUTE_MAXS.or(ClassWriter.COMPUTE_FRAMES))
-            cw.visit(V1_8, ACC_PUBLIC, className.replace('.', '/'), null, "java/lang/Object", null)
-            cw.visitSource(Paths.get(entries[0].file).fileName.toString(), null)
-
-            val ctor = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null)
-            ctor.visitMaxs(2, 1)
-            ctor.visitVarInsn(ALOAD, 0) // push `this` to the operand stack
-            ctor.visitMethodInsn(INVOKESPECIAL, Type.getInternalName(Any::class.java), "<init>", "()V", false) // call the constructor of super class
-            ctor.visitInsn(RETURN)
-            ctor.visitEnd()
-            methods.forEach { method ->
-                val mv = cw.visitMethod(ACC_PUBLIC, method, "()V", null, null)
-                mv.visitMaxs(1, 1)
-                mv.visitInsn(RETURN)
-                mv.visitEnd()
-            }
-            cw.visitEnd()
-            outFile.writeBytes(cw.toByteArray())
+    private fun collect(pytestDir: File, additionalArgs: List<String>): List<String> {
+        val stdout = ByteArrayOutputStream()
+        val stderr = ByteArrayOutputStream()
+
+        val venvDir = venvDirectory.get().asFile
+
+        val modifiedPath = "${venvDir}${File.separator}bin${File.pathSeparator}${System.getenv("PATH")}"
+
+        val execResult = project.exec {
+            workingDir = pytestDir
+            environment("PATH", modifiedPath)
+            executable = "${venvDir}${File.separator}bin${File.separator}pytest"
+            args = listOf("--collect-only",
+                    "--gradle") + pytestOptions.get() + additionalArgs
+            environment(pytestEnvironment.get())
+            standardOutput = stdout
+            errorOutput = stderr
+            isIgnoreExitValue = true
+        }
+
+        if (execResult.exitValue != 0) {
+            throw GradleException("pytest discovery failed - exit code = ${execResult.exitValue}.\n" +
+                    "command: ${venvDir}${File.separator}bin${File.separator}pytest --collect-only --gradle ${(pytestOptions.get() + additionalArgs).joinToString(" ")}\n" +
+                    "stderr: $stderr")
+        }
+
+        return stdout.toString("UTF-8").lines()
+    }
+
+    /**
+     * Everything besides the Python files that influences the collection.
+     */
+    private fun collectionConfigKey(pytestDir: File): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        fun update(s: String) = digest.update("$s\u0000".toByteArray())
+        update(PytestVersion.get().version)
+        pytestOptions.get().forEach { update(it) }
+        pytestEnvironment.get().toSortedMap().forEach { (k, v) -> update("$k=$v") }
+        val iniFiles = listOf("pytest.ini", "tox.ini", "setup.cfg", "pyproject.toml").map { pytestDir.resolve(it) } +
+                listOfNotNull(frozenRequirements.orNull?.asFile)
+        iniFiles.filter { it.isFile }.forEach { f ->
+            update(f.name)
+            digest.update(f.readBytes())
         }
+        return digest.digest().joinToString("") { "%02x".format(it) }
     }
 }
\ No newline at end of file
@@ -88,6 +88,20 @@ abstract class PytestExtension(private val project: Project) {
      */
     val pipEnvironment = project.objects.mapProperty(String::class, String::class).convention(mapOf())
 
+    /**
+     * Build the wheels of all frozen requirements into a "wheelhouse" directory, which is passed to the [Pytest]
+     * tasks, so test JVMs (especially remote test agents) install the frozen requirements without network access.
+     * Defaults to `true`, if the project property `pytest.wheelhouse` is present.
+     */
+    val buildWheelhouse = project.objects.property(Boolean::class).convention(project.hasProperty("pytest.wheelhouse"))
+
+    /**
+     * Number of concurrent `pytest --collect-only` processes used by the [PytestDiscovery] tasks for a full
+     * collection. The top-level directories of [pytestDirectorySet] are distributed across the processes, the
+     * result is the same as for a single process. Defaults to `1`.
+     */
+    val collectParallelism = project.objects.property(Int::class).convention(1)
+
     val sourceRequirementsTasks: ListProperty<TaskProvider<out RepoSource>> = project.objects.listProperty<TaskProvider<out RepoSource>>().convention(listOf())
 
     abstract fun createTasks(baseName: String): Pair<TaskProvider<Pytest>, TaskProvider<PytestDiscovery>>
@@ -16,6 +16,7 @@
 
 package com.datastax.junitpytest.gradleplugin
 
+import com.datastax.junitpytest.common.CollectedTestsIndex
 import org.gradle.api.Project
 import org.gradle.api.internal.jvm.ClassDirectoryBinaryNamingScheme
 import org.gradle.api.tasks.PathSensitivity.RELATIVE
@@ -31,7 +32,11 @@ internal open class PytestExtensionInternal(private val project: Project) : Pyte
 
     private val frozenRequirements = project.objects.fileProperty().convention { project.layout.buildDirectory.file("generated/python-requirements/frozen-requirements.txt").get().asFile }
 
-    private val createVirtualenv = project.tasks.register<PytestCreateVirtualenv>("createVirtualenv", requirementsSource, frozenRequirements, venvDirectory)
+    private val wheelhouseDirectory = project.objects.directoryProperty().convention(project.provider {
+        if (buildWheelhouse.get()) project.layout.buildDirectory.dir("generated/python-wheelhouse").get() else null
+    })
+
+    private val createVirtualenv = project.tasks.register<PytestCreateVirtualenv>("createVirtualenv", requirementsSource, frozenRequirements, venvDirectory, wheelhouseDirectory)
 
     init {
         project.objects.sourceDirectorySet("pytestVenv", "virtualenv for pytest").apply {
@@ -60,6 +65,7 @@ internal open class PytestExtensionInternal(private val project: Project) : Pyte
         val discoverPytest = tasks.register<PytestDiscovery>(namingScheme.getTaskName("discoverPytest", null), pytestOptions, pytestEnvironment, collectedTestsFile, venvDirectory)
         discoverPytest.configure {
             dependsOn(createVirtualenv)
+            frozenRequirements.set(this@PytestExtensionInternal.frozenRequirements)
         }
 
         pytestExtension.pytestDirectorySet.compiledBy(discoverPytest) { it.outputDirectory }
@@ -77,7 +83,9 @@ internal open class PytestExtensionInternal(private val project: Project) : Pyte
                 inputs.dir(srcDir.get().targetDirectory).withPathSensitivity(RELATIVE)
             }
             inputs.files(discoverPytest.get().collectedTestsFile).withPathSensitivity(RELATIVE)
+            inputs.files(discoverPytest.get().collectedTestsFile.map { f -> CollectedTestsIndex.indexFileFor(f.asFile.toPath()).toFile() }).withPathSensitivity(RELATIVE)
             inputs.files(frozenRequirements).withPathSensitivity(RELATIVE)
+            wheelhouse.set(wheelhouseDirectory)
             outputs.dir(pytestOutputs)
             pytestOutputs.fileValue(project.buildDir.resolve("test-results/${name}"))
             setForkEvery(0)
@@ -31,6 +31,7 @@ public class PytestClassInfo
     private final String simpleClassName;
     private final Set<String> methodNames = new LinkedHashSet<>();
     private final Map<String, List<String>> testsPerMethod = new LinkedHashMap<>();
+    private int moduleClassCount;
 
     public static PytestClassInfo fromCollectEntry(PytestCollectEntry collectEntry)
     {
@@ -78,6 +79,19 @@ public class PytestClassInfo
         return tests;
     }
 
+    /**
+     * Number of collected test classes in the same file (module) or {@code 0}, if unknown.
+     */
+    public int getModuleClassCount()
+    {
+        return moduleClassCount;
+    }
+
+    public void setModuleClassCount(int moduleClassCount)
+    {
+        this.moduleClassCount = moduleClassCount;
+    }
+
     public int getTestCount()
     {
         int cnt = 0;
@@ -92,6 +92,10 @@ public class PytestEngine implements TestEngine
         discoverer.readCollectedTests(Paths.get(collectedTestsFile));
         TestDescriptor result = discoverer.discover(discoveryRequest, uniqueId);
 
+        TestImpact impact = TestImpact.load(discoveryRequest.getConfigurationParameters());
+        if (impact != null)
+            impact.select(result);
+
         if (debug)
             dumpTests("Discover result", result);
         return result;
@@ -18,7 +18,9 @@ package com.datastax.junitpytest.engine;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import org.junit.platform.engine.TestDescriptor;
 import org.junit.platform.engine.TestExecutionResult;
@@ -95,11 +97,16 @@ public class TestClassDescriptor extends AbstractTestDescriptor
 
     public boolean runWholeClass()
     {
-        return info.getTestCount() == getChildren().size() &&
-               info.getMethodNames()
+        if (info.getTestCount() != getChildren().size())
+            return false;
+        Set<String> tests = getChildren().stream()
+                                         .filter(TestCaseDescriptor.class::isInstance)
+                                         .map(c -> ((TestCaseDescriptor) c).getTest())
+                                         .collect(Collectors.toSet());
+        return info.getMethodNames()
                    .stream()
                    .flatMap(m -> info.testsForMethod(m).stream())
-                   .allMatch(testName -> findByUniqueId(getUniqueId().append(TestCaseDescriptor.SEGMENT_TYPE, testName)).isPresent());
+                   .allMatch(tests::contains);
     }
 
     public String toPytestArgument()
@@ -0,0 +1,356 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.datastax.junitpytest.common.PytestCollectEntry;
+import org.junit.platform.engine.ConfigurationParameters;
+import org.junit.platform.engine.TestDescriptor;
+
+/**
+ * Test impact analysis: the Python files below the working directory executed by each test case are recorded
+ * by the pytest-plugin ({@code --gradle-impact}) and persisted together with a fingerprint of the content of
+ * those files. With {@code pytest.impact=select}, only the test cases whose covered files changed since they were
+ * recorded, that did not pass or that are not known yet are selected, all others are removed during discovery.
+ * <p>
+ * The file contains a header line {@code # junitpytest-test-impact/1 <config-key>}, {@code F TAB <path>} lines
+ * for all covered files and one {@code T TAB <class>::<test> TAB P|F TAB <fingerprint> TAB <file-indexes>} line
+ * per test case. The config key covers the frozen requirements and the pytest options, all tests are selected
+ * when it changes.
+ * <p>
+ * Note that only executed functions count as covered, module level code that runs during collection does not.
+ * The files executed while setting up a fixture are covered by all test cases using the fixture, not only by the
+ * first one that set up a module- or session-scoped fixture.
+ */
+public final class TestImpact
+{
+    private static final String HEADER = "# junitpytest-test-impact/1 ";
+    private static final String MISSING = "-";
+
+    private final Path file;
+    private final Path workingDirectory;
+    private final String configKey;
+    private final boolean selecting;
+    private final Map<String, Entry> previous;
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+    private final Map<String, String> fileHashes = new HashMap<>();
+
+    private static final class Entry
+    {
+        final boolean passed;
+        final String fingerprint;
+        final List<String> files;
+
+        Entry(boolean passed, String fingerprint, List<String> files)
+        {
+            this.passed = passed;
+            this.fingerprint = fingerprint;
+            this.files = files;
+        }
+    }
+
+    private TestImpact(Path file, Path workingDirectory, String configKey, boolean selecting, Map<String, Entry> previous)
+    {
+        this.file = file;
+        this.workingDirectory = workingDirectory;
+        this.configKey = configKey;
+        this.selecting = selecting;
+        this.previous = previous;
+    }
+
+    /**
+     * Loads the recorded test impact, if configured via {@code pytest.impact} ({@code record} or {@code select})
+     * and {@code pytest.impactFile}.
+     *
+     * @return the test impact or {@code null}, if test impact analysis is not enabled
+     */
+    public static TestImpact load(ConfigurationParameters config)
+    {
+        String mode = config.get("pytest.impact").orElse("off");
+        Optional<String> file = config.get("pytest.impactFile");
+        if ("off".equalsIgnoreCase(mode) || !file.isPresent())
+            return null;
+        if (!"record".equalsIgnoreCase(mode) && !"select".equalsIgnoreCase(mode))
+            throw new IllegalArgumentException("Illegal value '" + mode + "' for pytest.impact, must be one of off, record, select");
+
+        Path impactFile = Paths.get(file.get());
+        String configKey = configKey(config);
+        Map<String, Entry> previous = new HashMap<>();
+        try
+        {
+            String key = read(impactFile, previous);
+            if (!configKey.equals(key))
+                previous.clear();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not read test impact from " + impactFile + ": " + e);
+            previous.clear();
+        }
+        return new TestImpact(impactFile, Paths.get(config.get("pytest.cwd").orElse(".")), configKey,
+                              "select".equalsIgnoreCase(mode), previous);
+    }
+
+    /**
+     * Removes the test cases that are not affected by changes and the test classes without any remaining test case
+     * from the discovered tests, if selecting.
+     */
+    public void select(TestDescriptor root)
+    {
+        if (!selecting)
+            return;
+
+        int total = 0;
+        int selected = 0;
+        for (TestDescriptor child : new ArrayList<>(root.getChildren()))
+        {
+            if (!(child instanceof TestClassDescriptor))
+                continue;
+            TestClassDescriptor testClass = (TestClassDescriptor) child;
+            for (TestDescriptor testCase : new ArrayList<>(testClass.getChildren()))
+            {
+                if (!(testCase instanceof TestCaseDescriptor))
+                    continue;
+                total++;
+                if (affected(testClass.getTestClass() + "::" + ((TestCaseDescriptor) testCase).getTest()))
+                    selected++;
+                else
+                    testCase.removeFromHierarchy();
+            }
+            if (testClass.getChildren().isEmpty())
+                testClass.removeFromHierarchy();
+        }
+        System.out.println("Test impact analysis selected " + selected + " of " + total + " tests");
+    }
+
+    private boolean affected(String test)
+    {
+        Entry entry = previous.get(test);
+        return entry == null || !entry.passed || !entry.fingerprint.equals(fingerprint(entry.files));
+    }
+
+    /**
+     * Records the files covered by a test case, as reported by the pytest-plugin.
+     *
+     * @param coveredFiles newline separated paths relative to the working directory
+     */
+    public void record(String nodeid, String fspath, String domain, String coveredFiles, boolean passed)
+    {
+        PytestCollectEntry entry = PytestCollectEntry.parseFromPytest(nodeid, fspath, domain);
+        if (entry == null)
+            return;
+        List<String> files = new ArrayList<>(new TreeSet<>(Arrays.asList(coveredFiles.isEmpty() ? new String[0] : coveredFiles.split("\n"))));
+        current.put(entry.getFullyQualifiedClassName() + "::" + entry.getTest(), new Entry(passed, null, files));
+    }
+
+    /**
+     * Merges the test cases recorded in this run into the test impact file.
+     */
+    public void save() throws IOException
+    {
+        if (current.isEmpty())
+            return;
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        try (FileChannel lockChannel = FileChannel.open(dir.resolve(file.getFileName() + ".lock"),
+                                                        StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            // Released when the channel is closed
+            lockChannel.lock();
+            Map<String, Entry> merged = new TreeMap<>();
+            if (configKey.equals(read(file, merged)))
+                merged.keySet().removeIf(current::containsKey);
+            else
+                merged.clear();
+            for (Map.Entry<String, Entry> e : current.entrySet())
+                merged.put(e.getKey(), new Entry(e.getValue().passed, fingerprint(e.getValue().files), e.getValue().files));
+
+            Map<String, Integer> fileIndexes = new HashMap<>();
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))
+            {
+                writer.write(HEADER + configKey + '\n');
+                for (Entry entry : merged.values())
+                    for (String f : entry.files)
+                        if (fileIndexes.putIfAbsent(f, fileIndexes.size()) == null)
+                            writer.write("F\t" + f + '\n');
+                for (Map.Entry<String, Entry> e : merged.entrySet())
+                {
+                    if (e.getKey().indexOf('\t') != -1 || e.getKey().indexOf('\n') != -1)
+                        continue;
+                    Entry entry = e.getValue();
+                    StringBuilder sb = new StringBuilder("T\t").append(e.getKey())
+                                                              .append('\t').append(entry.passed ? 'P' : 'F')
+                                                              .append('\t').append(entry.fingerprint)
+                                                              .append('\t');
+                    for (int i = 0; i < entry.files.size(); i++)
+                    {
+                        if (i > 0)
+                            sb.append(',');
+                        sb.append(fileIndexes.get(entry.files.get(i)));
+                    }
+                    writer.write(sb.append('\n').toString());
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Fingerprint of the current content of the given files.
+     */
+    private String fingerprint(List<String> files)
+    {
+        MessageDigest digest = sha256();
+        for (String f : files)
+        {
+            digest.update(f.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(fileHash(f).getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) 0);
+        }
+        return hex(digest.digest(), 16);
+    }
+
+    private synchronized String fileHash(String path)
+    {
+        return fileHashes.computeIfAbsent(path, p -> {
+            try
+            {
+                return hex(sha256().digest(Files.readAllBytes(workingDirectory.resolve(p))), 16);
+            }
+            catch (IOException e)
+            {
+                return MISSING;
+            }
+        });
+    }
+
+    static String configKey(ConfigurationParameters config)
+    {
+        MessageDigest digest = sha256();
+        config.get("pytest.frozenRequirements").ifPresent(f -> {
+            try
+            {
+                digest.update(Files.readAllBytes(Paths.get(f)));
+            }
+            catch (IOException e)
+            {
+                // no frozen requirements
+            }
+        });
+        for (int i = 0; ; i++)
+        {
+            Optional<String> option = config.get("pytest.option." + i);
+            if (!option.isPresent())
+                break;
+            digest.update((byte) 0);
+            digest.update(option.get().getBytes(StandardCharsets.UTF_8));
+        }
+        return hex(digest.digest(), 16);
+    }
+
+    /**
+     * Reads the test impact file into {@code target}.
+     *
+     * @return the config key of the file or {@code null}, if the file does not exist or is not a test impact file
+     */
+    private static String read(Path file, Map<String, Entry> target) throws IOException
+    {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(HEADER))
+                return null;
+            String key = line.substring(HEADER.length());
+
+            List<String> files = new ArrayList<>();
+            while ((line = reader.readLine()) != null)
+            {
+                String[] parts = line.split("\t", -1);
+                if (parts.length == 2 && "F".equals(parts[0]))
+                {
+                    files.add(parts[1]);
+                }
+                else if (parts.length == 5 && "T".equals(parts[0]))
+                {
+                    List<String> covered = new ArrayList<>();
+                    try
+                    {
+                        if (!parts[4].isEmpty())
+                            for (String i : parts[4].split(","))
+                                covered.add(files.get(Integer.parseInt(i)));
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // ignore broken lines
+                        continue;
+                    }
+                    target.put(parts[1], new Entry("P".equals(parts[2]), parts[3], covered));
+                }
+            }
+            return key;
+        }
+        catch (NoSuchFileException e)
+        {
+            // nothing recorded yet
+            return null;
+        }
+    }
+
+    private static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes, int length)
+    {
+        StringBuilder sb = new StringBuilder(length * 2);
+        for (int i = 0; i < length; i++)
+            sb.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16)).append(Character.forDigit(bytes[i] & 0xf, 16));
+        return sb.toString();
+    }
+}
@@ -20,9 +20,11 @@ import java.io.IOError;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import com.datastax.junitpytest.common.CollectedTestsIndex;
 import com.datastax.junitpytest.common.PytestCollectEntry;
 import com.datastax.junitpytest.engine.PytestClassInfo;
 import com.datastax.junitpytest.engine.RootDescriptor;
@@ -36,6 +38,7 @@ import org.junit.platform.engine.support.discovery.EngineDiscoveryRequestResolve
 public class PytestDiscoverer
 {
     private final Map<String, PytestClassInfo> classInfos = new LinkedHashMap<>();
+    private CollectedTestsIndex index;
 
     public TestDescriptor discover(EngineDiscoveryRequest discoveryRequest, UniqueId uniqueId)
     {
@@ -61,7 +64,7 @@ public class PytestDiscoverer
     private void applyFiltersAndCreateTestCases(TestClassDescriptor classDescriptor)
     {
         String className = classDescriptor.getUniqueId().getLastSegment().getValue();
-        PytestClassInfo classInfo = classInfos.get(className);
+        PytestClassInfo classInfo = testClassInfo(className);
         if (classInfo == null)
             throw new NullPointerException("No PytestClassInfo for " + className);
         classInfo.getMethodNames()
@@ -76,11 +79,26 @@ public class PytestDiscoverer
 
     boolean acceptsTestClass(String className)
     {
-        return classInfos.containsKey(className);
+        return testClassInfo(className) != null;
     }
 
+    /**
+     * Reads the collected tests. If the binary index written by the {@code PytestDiscovery} task is present, the
+     * test classes are resolved lazily from the index, otherwise the text file is parsed.
+     */
     public void readCollectedTests(Path collectedTestsFile)
     {
+        try
+        {
+            index = CollectedTestsIndex.open(collectedTestsFile);
+            if (index != null)
+                return;
+        }
+        catch (IOException e)
+        {
+            throw new IOError(e);
+        }
+
         try (BufferedReader br = Files.newBufferedReader(collectedTestsFile))
         {
             String ln;
@@ -94,23 +112,42 @@ public class PytestDiscoverer
                                                                        c -> PytestClassInfo.fromCollectEntry(entry));
 
                 String test = entry.getTest();
-
-                String method = test;
-                int i = method.indexOf('[');
-                if (i != -1)
-                    method = method.substring(0, i);
-
-                classInfo.addTest(method, test);
+                classInfo.addTest(methodForTest(test), test);
             }
         }
         catch (IOException e)
         {
             throw new IOError(e);
         }
+
+        Map<String, Integer> classesPerFile = new HashMap<>();
+        for (PytestClassInfo classInfo : classInfos.values())
+            classesPerFile.merge(classInfo.getFile(), 1, Integer::sum);
+        for (PytestClassInfo classInfo : classInfos.values())
+            classInfo.setModuleClassCount(classesPerFile.get(classInfo.getFile()));
     }
 
     PytestClassInfo testClassInfo(String testClass)
     {
-        return classInfos.get(testClass);
+        PytestClassInfo classInfo = classInfos.get(testClass);
+        if (classInfo == null && index != null)
+        {
+            CollectedTestsIndex.TestClass indexed = index.lookup(testClass);
+            if (indexed != null)
+            {
+                classInfo = new PytestClassInfo(indexed.getFile(), indexed.getFullyQualifiedClassName(), indexed.getSimpleClassName());
+                for (String test : indexed.getTests())
+                    classInfo.addTest(methodForTest(test), test);
+                classInfo.setModuleClassCount(indexed.getModuleClassCount());
+                classInfos.put(testClass, classInfo);
+            }
+        }
+        return classInfo;
+    }
+
+    private static String methodForTest(String test)
+    {
+        int i = test.indexOf('[');
+        return i != -1 ? test.substring(0, i) : test;
     }
 }
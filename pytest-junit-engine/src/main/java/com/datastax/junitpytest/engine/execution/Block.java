@@ -0,0 +1,55 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.PrintStream;
+
+/**
+ * The value of a single block of a {@link Message}.
+ */
+abstract class Block
+{
+    /**
+     * Number of bytes (not characters) of this block.
+     */
+    abstract int length();
+
+    /**
+     * Decodes the block content to a {@link String}.
+     */
+    abstract String asString();
+
+    /**
+     * Prints the block content followed by a line separator to {@code out}.
+     */
+    void printTo(PrintStream out)
+    {
+        out.println(asString());
+    }
+
+    /**
+     * Releases the resources held by this block, the block must not be accessed afterwards.
+     */
+    void release()
+    {
+    }
+
+    @Override
+    public String toString()
+    {
+        return asString();
+    }
+}
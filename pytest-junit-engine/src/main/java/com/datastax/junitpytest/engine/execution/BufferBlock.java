@@ -0,0 +1,52 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link Block} that refers to the buffer of an {@link InboundHandler}. The content is only decoded
+ * when requested, so (potentially huge) blocks that are never looked at are never materialized as
+ * {@link String}s.
+ */
+final class BufferBlock extends Block
+{
+    private final InboundHandler handler;
+    private final int offset;
+    private final int length;
+    private String value;
+
+    BufferBlock(InboundHandler handler, int offset, int length)
+    {
+        this.handler = handler;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    int length()
+    {
+        return length;
+    }
+
+    @Override
+    String asString()
+    {
+        if (value == null)
+            value = length == 0 ? "" : new String(handler.buffer(), handler.messageStart + offset, length, StandardCharsets.UTF_8);
+        return value;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.datastax.junitpytest.engine.TestCaseDescriptor;
+import com.datastax.junitpytest.engine.TestClassDescriptor;
+import org.junit.platform.engine.TestDescriptor;
+
+/**
+ * Constant time lookup of test class and test case descriptors by the names reported by {@code pytest}, replaces
+ * walking the test descriptor tree via {@link TestDescriptor#findByUniqueId(org.junit.platform.engine.UniqueId)}.
+ * <p>
+ * Shared by all {@link TestHandler}s of an execution, so it must be accessed under the same lock.
+ */
+final class DescriptorIndex
+{
+    private final Map<String, TestClassDescriptor> classes = new HashMap<>();
+    private final Map<String, Map<String, TestCaseDescriptor>> cases = new HashMap<>();
+
+    DescriptorIndex(TestDescriptor rootTestDescriptor)
+    {
+        for (TestDescriptor child : rootTestDescriptor.getChildren())
+        {
+            if (child instanceof TestClassDescriptor)
+            {
+                add(child);
+                for (TestDescriptor grandChild : child.getChildren())
+                    add(grandChild);
+            }
+        }
+    }
+
+    TestClassDescriptor testClass(String fullyQualifiedClassName)
+    {
+        return classes.get(fullyQualifiedClassName);
+    }
+
+    TestCaseDescriptor testCase(TestClassDescriptor testClass, String test)
+    {
+        Map<String, TestCaseDescriptor> classCases = cases.get(testClass.getTestClass());
+        return classCases != null ? classCases.get(test) : null;
+    }
+
+    /**
+     * Adds a test class or test case descriptor, must be called for dynamically registered descriptors.
+     */
+    void add(TestDescriptor testDescriptor)
+    {
+        if (testDescriptor instanceof TestClassDescriptor)
+        {
+            TestClassDescriptor classDescriptor = (TestClassDescriptor) testDescriptor;
+            classes.put(classDescriptor.getTestClass(), classDescriptor);
+        }
+        else if (testDescriptor instanceof TestCaseDescriptor)
+        {
+            TestCaseDescriptor caseDescriptor = (TestCaseDescriptor) testDescriptor;
+            cases.computeIfAbsent(caseDescriptor.getParentClass().getTestClass(), c -> new HashMap<>())
+                 .put(caseDescriptor.getTest(), caseDescriptor);
+        }
+    }
+}
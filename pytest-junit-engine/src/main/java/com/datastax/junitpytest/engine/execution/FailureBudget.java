@@ -0,0 +1,90 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.datastax.junitpytest.engine.exceptions.PytestAbortedException;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.UniqueId;
+
+/**
+ * Failure budget of a test run, shared by all {@code pytest} workers. The budget is exhausted, when
+ * {@link Testenv#getMaxFailures()} test cases failed or when the rate of failed test cases exceeds
+ * {@link Testenv#getMaxFailureRate()} after at least {@link #MIN_TESTS_FOR_FAILURE_RATE} test cases.
+ * <p>
+ * Also tracks the started test-descriptors, so the tests that were not run are reported exactly once.
+ */
+final class FailureBudget
+{
+    static final int MIN_TESTS_FOR_FAILURE_RATE = 20;
+
+    private final int maxFailures;
+    private final double maxFailureRate;
+    private final Set<UniqueId> started = new HashSet<>();
+    private int finished;
+    private int failed;
+    private volatile PytestAbortedException exhausted;
+
+    FailureBudget(Testenv testenv)
+    {
+        this(testenv.getMaxFailures(), testenv.getMaxFailureRate());
+    }
+
+    FailureBudget(int maxFailures, double maxFailureRate)
+    {
+        this.maxFailures = maxFailures;
+        this.maxFailureRate = maxFailureRate;
+    }
+
+    synchronized void started(UniqueId uniqueId)
+    {
+        started.add(uniqueId);
+    }
+
+    synchronized boolean wasStarted(UniqueId uniqueId)
+    {
+        return started.contains(uniqueId);
+    }
+
+    /**
+     * Records the result of a test case.
+     */
+    synchronized void finished(TestExecutionResult result)
+    {
+        finished++;
+        if (result.getStatus() == TestExecutionResult.Status.FAILED)
+            failed++;
+
+        if (exhausted != null)
+            return;
+        if (maxFailures > 0 && failed >= maxFailures)
+            exhausted = new PytestAbortedException(String.format("Not run, failure budget exhausted: %d of %d tests failed (pytest.maxFailures=%d)",
+                                                                 failed, finished, maxFailures));
+        else if (maxFailureRate > 0d && finished >= MIN_TESTS_FOR_FAILURE_RATE && failed > maxFailureRate * finished)
+            exhausted = new PytestAbortedException(String.format("Not run, failure budget exhausted: %d of %d tests failed (pytest.maxFailureRate=%s)",
+                                                                 failed, finished, maxFailureRate));
+    }
+
+    /**
+     * The reason for the tests not being run or {@code null}, if the budget is not exhausted.
+     */
+    PytestAbortedException exhausted()
+    {
+        return exhausted;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A {@link Block} whose content has been written to a temporary file by the {@link InboundHandler}, because it
+ * exceeded the spill threshold. The content is streamed from the file when printed and only read into a
+ * {@link String} when explicitly requested via {@link #asString()}.
+ */
+final class FileBlock extends Block
+{
+    private final Path file;
+    private final int length;
+
+    FileBlock(Path file, int length)
+    {
+        this.file = file;
+        this.length = length;
+    }
+
+    @Override
+    int length()
+    {
+        return length;
+    }
+
+    @Override
+    String asString()
+    {
+        try
+        {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    void printTo(PrintStream out)
+    {
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))
+        {
+            CharBuffer chars = CharBuffer.allocate(8192);
+            while (reader.read(chars) != -1)
+            {
+                chars.flip();
+                out.append(chars);
+                chars.clear();
+            }
+            out.println();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    void release()
+    {
+        try
+        {
+            Files.deleteIfExists(file);
+        }
+        catch (IOException e)
+        {
+            // ignore, it's just a temporary file
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Setup costs of pytest fixtures aggregated over all tests, written as a report sorted by the total setup time,
+ * which makes slow module- and session-scoped fixtures easy to spot. The report has one
+ * {@code <total-ms> TAB <setups> TAB <max-ms> TAB <scope> TAB <fixture>} line per fixture.
+ * <p>
+ * The costs of this run are merged into the report by {@link #save()}, so concurrently running test JVMs of the
+ * same task contribute to the same report. The {@code Pytest} task removes the report before the tests run.
+ */
+final class FixtureCosts
+{
+    private final Path file;
+    private final Map<String, Cost> costs = new HashMap<>();
+
+    private static final class Cost
+    {
+        final String scope;
+        final String fixture;
+        long setups;
+        long totalNanos;
+        long maxNanos;
+
+        Cost(String scope, String fixture)
+        {
+            this.scope = scope;
+            this.fixture = fixture;
+        }
+
+        void add(long setups, long totalNanos, long maxNanos)
+        {
+            this.setups += setups;
+            this.totalNanos += totalNanos;
+            this.maxNanos = Math.max(this.maxNanos, maxNanos);
+        }
+    }
+
+    FixtureCosts(Path file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Records the setup of a fixture.
+     */
+    synchronized void record(String fixture, String scope, long nanos)
+    {
+        costs.computeIfAbsent(scope + '\t' + fixture, k -> new Cost(scope, fixture)).add(1, nanos, nanos);
+    }
+
+    synchronized void save() throws IOException
+    {
+        if (costs.isEmpty())
+            return;
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        try (FileChannel lockChannel = FileChannel.open(dir.resolve(file.getFileName() + ".lock"),
+                                                        StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            // Released when the channel is closed
+            lockChannel.lock();
+            Map<String, Cost> merged = new HashMap<>();
+            read(file, merged);
+            for (Map.Entry<String, Cost> e : costs.entrySet())
+            {
+                Cost cost = e.getValue();
+                merged.computeIfAbsent(e.getKey(), k -> new Cost(cost.scope, cost.fixture))
+                      .add(cost.setups, cost.totalNanos, cost.maxNanos);
+            }
+
+            List<Cost> sorted = new ArrayList<>(merged.values());
+            sorted.sort(Comparator.comparingLong((Cost c) -> c.totalNanos).reversed()
+                                  .thenComparing(c -> c.fixture));
+
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))
+            {
+                writer.write("# Setup costs of pytest fixtures: total milliseconds, setups, max milliseconds, scope, fixture\n");
+                for (Cost cost : sorted)
+                {
+                    writer.write(String.format(Locale.ROOT, "%.3f\t%d\t%.3f\t%s\t%s\n",
+                                               cost.totalNanos / 1_000_000d, cost.setups, cost.maxNanos / 1_000_000d,
+                                               cost.scope, cost.fixture));
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static long millisToNanos(String millis)
+    {
+        return (long) (Double.parseDouble(millis) * 1_000_000d);
+    }
+
+    private static void read(Path file, Map<String, Cost> target) throws IOException
+    {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                String[] parts = line.split("\t");
+                if (line.startsWith("#") || parts.length != 5)
+                    continue;
+                try
+                {
+                    target.computeIfAbsent(parts[3] + '\t' + parts[4], k -> new Cost(parts[3], parts[4]))
+                          .add(Long.parseLong(parts[1]), millisToNanos(parts[0]), millisToNanos(parts[2]));
+                }
+                catch (NumberFormatException e)
+                {
+                    // ignore broken lines
+                }
+            }
+        }
+        catch (NoSuchFileException e)
+        {
+            // no report yet
+        }
+    }
+}
@@ -15,15 +15,52 @@
  */
 package com.datastax.junitpytest.engine.execution;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.StringTokenizer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Decodes the messages sent by the {@code junitpytest} pytest-plugin.
+ * <p>
+ * Data is read in bulk into a reusable buffer, which is scanned for line endings and block boundaries.
+ * Blocks are not copied, the {@link Block}s of a returned {@link Message} refer directly to the buffer and
+ * are only decoded to a {@link String} when accessed. This means that a {@link Message} returned by
+ * {@link #readMessage(ReadableByteChannel)} is only valid until the next call to {@code readMessage}.
+ * <p>
+ * Blocks larger than the spill threshold are not kept in the buffer, but streamed to a temporary file as the data
+ * arrives and represented as a {@link FileBlock}, so huge captured outputs are never fully resident on the heap.
+ * The temporary files are deleted by {@link Message#release()}.
+ * <p>
+ * Two framings are supported. The text framing is used until the plugin sends the line {@code *** BINARY/1}
+ * (which it does, if started with {@code --gradle-framing=binary}), all following data uses the binary framing.
+ * Binary frames start with a frame-type byte:
+ * <ul>
+ *     <li>{@code 0x01} defines the next name: {@code <varint length> <UTF-8 bytes>}, the first defined name
+ *     has the ID 0, the second ID 1, etc.</li>
+ *     <li>{@code 0x02} is a message: {@code <varint message-name-ID> <varint number-of-blocks>}, followed by the
+ *     blocks {@code <varint block-name-ID> <varint length> <UTF-8 bytes>}</li>
+ * </ul>
+ * Varints are unsigned LEB128 encoded, 7 bits per byte, least significant group first.
+ */
 final class InboundHandler
 {
-    final byte[] iobuf = new byte[8192];
+    static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+    private static final byte[] START = "*** START/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "*** END".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BINARY = "*** BINARY/1".getBytes(StandardCharsets.US_ASCII);
+
+    static final int FRAME_NAME = 1;
+    static final int FRAME_MESSAGE = 2;
 
     enum State
     {
@@ -40,7 +77,28 @@ final class InboundHandler
 
     private State state = State.EXPECT_START;
 
-    private final ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
+    private final int spillThreshold;
+
+    private byte[] buf;
+    private ByteBuffer readBuffer;
+    /**
+     * Offset of the first byte of the message being decoded, blocks are relative to this offset.
+     */
+    int messageStart;
+    /**
+     * Offset of the next byte to decode.
+     */
+    private int position;
+    /**
+     * Number of valid bytes in {@link #buf}.
+     */
+    private int limit;
+    /**
+     * Offset from which to continue searching for the next line ending.
+     */
+    private int scanned;
+
+    private final StringCache names = new StringCache();
 
     private int remainingBlocks;
     private String currentBlockName;
@@ -48,85 +106,380 @@ final class InboundHandler
 
     private Message current;
 
-    Message readMessage(InputStream input) throws IOException
+    /**
+     * Temporary file receiving the block being spilled or {@code null}.
+     */
+    private Path spillFile;
+    private FileChannel spillChannel;
+    private int spillLength;
+
+    private boolean binary;
+    private final List<String> binaryNames = new ArrayList<>();
+    private int varint;
+
+    InboundHandler()
+    {
+        this(INITIAL_BUFFER_SIZE, DEFAULT_SPILL_THRESHOLD);
+    }
+
+    InboundHandler(int initialBufferSize)
+    {
+        this(initialBufferSize, DEFAULT_SPILL_THRESHOLD);
+    }
+
+    /**
+     * @param spillThreshold blocks with more bytes than this are spilled to temporary files
+     */
+    InboundHandler(int initialBufferSize, int spillThreshold)
+    {
+        this.spillThreshold = spillThreshold;
+        this.buf = new byte[initialBufferSize];
+        this.readBuffer = ByteBuffer.wrap(buf);
+    }
+
+    byte[] buffer()
     {
-        if (state.line)
+        return buf;
+    }
+
+    /**
+     * Blocks until a complete message has been read from {@code input}.
+     *
+     * @return the next message or {@code null}, if {@code input} reached EOF at a message boundary
+     * @throws EOFException if {@code input} reached EOF in the middle of a message
+     */
+    Message readMessage(ReadableByteChannel input) throws IOException
+    {
+        // The previously returned message (if any) is no longer needed.
+        messageStart = position;
+
+        try
         {
-            // EXPECT_START
-            // EXPECT_END
-            // EXPECT_HEADER
-            // EXPECT_BLOCK_LENGTH
-            while (input.available() > 0)
-            {
-                int c = input.read();
-                if (c == -1)
-                    return null;
+            return decode(input);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            abortSpill();
+            if (current != null)
+                current.release();
+            current = null;
+            throw e;
+        }
+    }
 
-                if (c == 10)
+    private Message decode(ReadableByteChannel input) throws IOException
+    {
+        while (true)
+        {
+            if (binary)
+            {
+                Message message = decodeFrames();
+                if (message != null)
+                    return message;
+                if (!fill(input))
+                    return endOfStream();
+            }
+            else if (state.line)
+            {
+                // EXPECT_START
+                // EXPECT_END
+                // EXPECT_BLOCK_START
+                // POST_BLOCK_EOL
+                int eol = -1;
+                for (int i = scanned; i < limit; i++)
                 {
-                    String ln = new String(byteBuffer.toByteArray(), StandardCharsets.UTF_8);
-                    byteBuffer.reset();
-                    Message message = handleLine(ln);
-                    if (message != null)
-                        return message;
-                    if (!state.line)
+                    if (buf[i] == 10)
+                    {
+                        eol = i;
                         break;
+                    }
+                }
+                if (eol == -1)
+                {
+                    scanned = limit;
+                    if (!fill(input))
+                        return endOfStream();
+                    continue;
+                }
+
+                int lineStart = position;
+                position = eol + 1;
+                scanned = position;
+                Message message = handleLine(lineStart, eol);
+                if (message != null)
+                    return message;
+            }
+            else
+            {
+                // READING_BLOCK
+                if (spillFile != null)
+                {
+                    if (!spill())
+                    {
+                        if (!fill(input))
+                            return endOfStream();
+                        continue;
+                    }
+                }
+                else if (currentBlockRemaining > spillThreshold)
+                {
+                    startSpill();
+                    continue;
+                }
+                else if (limit - position < currentBlockRemaining)
+                {
+                    if (!fill(input))
+                        return endOfStream();
+                    continue;
                 }
                 else
                 {
-                    byteBuffer.write(c);
+                    current.blockMap.put(currentBlockName, new BufferBlock(this, position - messageStart, currentBlockRemaining));
+                    position += currentBlockRemaining;
                 }
+                scanned = position;
+                remainingBlocks--;
+                state = State.POST_BLOCK_EOL;
             }
         }
-        if (!state.line)
+    }
+
+    /**
+     * Decodes binary frames from the buffer. The blocks of a message are consumed one by one, so a spilled block
+     * does not need to fit into the buffer.
+     *
+     * @return the next complete message or {@code null}, if more data is needed
+     */
+    private Message decodeFrames() throws IOException
+    {
+        while (true)
         {
-            // READING_BLOCK
-            int av = input.available();
-            if (av > 0)
+            if (current != null)
             {
-                int toread = Math.min(currentBlockRemaining, Math.min(av, iobuf.length));
-                int rd = input.read(iobuf, 0, toread);
-                byteBuffer.write(iobuf, 0, rd);
-                currentBlockRemaining -= rd;
+                if (remainingBlocks == 0)
+                {
+                    Message message = current;
+                    current = null;
+                    return message;
+                }
+                if (spillFile != null)
+                {
+                    if (!spill())
+                        return null;
+                    remainingBlocks--;
+                    continue;
+                }
+
+                int p = position;
+                if ((p = readVarint(p)) == -1)
+                    return null;
+                String blockName = binaryName(varint);
+                if ((p = readVarint(p)) == -1)
+                    return null;
+                int length = varint;
+                if (length > spillThreshold)
+                {
+                    position = p;
+                    currentBlockName = blockName;
+                    currentBlockRemaining = length;
+                    startSpill();
+                    continue;
+                }
+                if (limit - p < length)
+                    return null;
+                current.blockMap.put(blockName, new BufferBlock(this, p - messageStart, length));
+                position = p + length;
+                remainingBlocks--;
+                continue;
             }
-            if (currentBlockRemaining == 0)
+
+            if (position == limit)
+                return null;
+            int p = position;
+            int type = buf[p++];
+            switch (type)
             {
-                current.blockMap.put(currentBlockName, new String(byteBuffer.toByteArray(), StandardCharsets.UTF_8));
-                byteBuffer.reset();
-                remainingBlocks--;
-                state = State.POST_BLOCK_EOL;
+                case FRAME_NAME:
+                    if ((p = readVarint(p)) == -1 || limit - p < varint)
+                        return null;
+                    binaryNames.add(names.get(buf, p, p + varint));
+                    position = p + varint;
+                    break;
+                case FRAME_MESSAGE:
+                    if ((p = readVarint(p)) == -1)
+                        return null;
+                    String messageName = binaryName(varint);
+                    if ((p = readVarint(p)) == -1)
+                        return null;
+                    current = Message.create(messageName);
+                    remainingBlocks = varint;
+                    position = p;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown binary frame type " + type);
             }
         }
+    }
+
+    /**
+     * Starts spilling the block {@link #currentBlockName} with {@link #currentBlockRemaining} bytes, which starts
+     * at {@link #position}, to a temporary file.
+     */
+    private void startSpill() throws IOException
+    {
+        spillFile = Files.createTempFile("pytest-block-", ".tmp");
+        spillChannel = FileChannel.open(spillFile, StandardOpenOption.WRITE);
+        spillLength = currentBlockRemaining;
+    }
+
+    /**
+     * Writes the available bytes of the block being spilled to its temporary file and removes them from the
+     * buffer, so the buffer does not grow with the size of the block.
+     *
+     * @return {@code true}, if the block is complete and has been added to the current message
+     */
+    private boolean spill() throws IOException
+    {
+        int n = Math.min(limit - position, currentBlockRemaining);
+        ByteBuffer bb = ByteBuffer.wrap(buf, position, n);
+        while (bb.hasRemaining())
+            spillChannel.write(bb);
+        System.arraycopy(buf, position + n, buf, position, limit - position - n);
+        limit -= n;
+        currentBlockRemaining -= n;
+        if (currentBlockRemaining > 0)
+            return false;
+
+        spillChannel.close();
+        current.blockMap.put(currentBlockName, new FileBlock(spillFile, spillLength));
+        spillChannel = null;
+        spillFile = null;
+        return true;
+    }
+
+    private void abortSpill() throws IOException
+    {
+        if (spillFile == null)
+            return;
+        spillChannel.close();
+        Files.deleteIfExists(spillFile);
+        spillChannel = null;
+        spillFile = null;
+    }
+
+    /**
+     * Reads a varint starting at {@code p} into {@link #varint}.
+     *
+     * @return the offset after the varint or {@code -1}, if more data is needed
+     */
+    private int readVarint(int p)
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            if (p == limit)
+                return -1;
+            int b = buf[p++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+            {
+                if (value < 0)
+                    throw new IllegalStateException("Varint value out of range");
+                varint = value;
+                return p;
+            }
+        }
+        throw new IllegalStateException("Varint value out of range");
+    }
+
+    private String binaryName(int id)
+    {
+        if (id >= binaryNames.size())
+            throw new IllegalStateException("Undefined name ID " + id);
+        return binaryNames.get(id);
+    }
+
+    /**
+     * Reads more data from {@code input}, compacting or growing the buffer, if necessary.
+     *
+     * @return {@code false} if {@code input} reached EOF
+     */
+    private boolean fill(ReadableByteChannel input) throws IOException
+    {
+        if (limit == buf.length)
+        {
+            int required = state == State.READING_BLOCK && spillFile == null
+                           ? position - messageStart + currentBlockRemaining
+                           : limit - messageStart + 1;
+            if (messageStart > 0 && required <= buf.length)
+            {
+                // compact, discard the already consumed messages
+                System.arraycopy(buf, messageStart, buf, 0, limit - messageStart);
+            }
+            else
+            {
+                byte[] newBuf = new byte[Math.max(buf.length * 2, required)];
+                System.arraycopy(buf, messageStart, newBuf, 0, limit - messageStart);
+                buf = newBuf;
+                readBuffer = ByteBuffer.wrap(buf);
+            }
+            position -= messageStart;
+            limit -= messageStart;
+            scanned -= messageStart;
+            messageStart = 0;
+        }
+
+        readBuffer.limit(buf.length).position(limit);
+        int rd = input.read(readBuffer);
+        if (rd == -1)
+            return false;
+        limit += rd;
+        return true;
+    }
+
+    private Message endOfStream() throws EOFException
+    {
+        if (state != State.EXPECT_START || position < limit || current != null)
+            throw new EOFException("Unexpected end of pytest output in state " + state);
         return null;
     }
 
-    private Message handleLine(String line)
+    private Message handleLine(int off, int end)
     {
         switch (state)
         {
             case EXPECT_START:
-                if (!line.startsWith("*** START/"))
-                    throw new IllegalStateException("Expected '*** START/...', but got '" + line + "'");
-                StringTokenizer lineTokens = new StringTokenizer(line, "/");
-                lineTokens.nextToken();
-                current = Message.create(lineTokens.nextToken());
-                remainingBlocks = Integer.parseInt(lineTokens.nextToken());
+                if (end - off == BINARY.length && startsWith(off, end, BINARY))
+                {
+                    binary = true;
+                    break;
+                }
+                if (!startsWith(off, end, START))
+                    throw new IllegalStateException("Expected '*** START/...', but got '" + line(off, end) + "'");
+                off += START.length;
+                int sep = indexOf(off, end, (byte) '/');
+                if (sep == -1)
+                    throw new IllegalStateException("Expected '*** START/<message>/<blocks>', but got '" + line(off, end) + "'");
+                current = Message.create(names.get(buf, off, sep));
+                remainingBlocks = parseInt(sep + 1, end);
                 state = remainingBlocks > 0 ? State.EXPECT_BLOCK_START : State.EXPECT_END;
                 break;
             case EXPECT_BLOCK_START:
-                int i = line.indexOf(": ");
-                currentBlockName = line.substring(0, i);
-                currentBlockRemaining = Integer.parseInt(line.substring(i + 2));
+                int i = indexOf(off, end, (byte) ':');
+                if (i == -1 || i + 1 >= end || buf[i + 1] != ' ')
+                    throw new IllegalStateException("Expected '<block>: <length>', but got '" + line(off, end) + "'");
+                currentBlockName = names.get(buf, off, i);
+                currentBlockRemaining = parseInt(i + 2, end);
                 state = State.READING_BLOCK;
                 break;
             case POST_BLOCK_EOL:
-                if (!line.isEmpty())
-                    throw new IllegalStateException("Expected empty line, but got '" + line + "'");
+                if (off != end)
+                    throw new IllegalStateException("Expected empty line, but got '" + line(off, end) + "'");
                 state = remainingBlocks > 0 ? State.EXPECT_BLOCK_START : State.EXPECT_END;
                 break;
             case EXPECT_END:
-                if (!"*** END".equals(line))
-                    throw new IllegalStateException("Expected '*** END', but got '" + line + "'");
+                if (end - off != END.length || !startsWith(off, end, END))
+                    throw new IllegalStateException("Expected '*** END', but got '" + line(off, end) + "'");
                 state = State.EXPECT_START;
                 Message r = current;
                 current = null;
@@ -134,4 +487,82 @@ final class InboundHandler
         }
         return null;
     }
+
+    private boolean startsWith(int off, int end, byte[] prefix)
+    {
+        if (end - off < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+            if (buf[off + i] != prefix[i])
+                return false;
+        return true;
+    }
+
+    private int indexOf(int off, int end, byte b)
+    {
+        for (int i = off; i < end; i++)
+            if (buf[i] == b)
+                return i;
+        return -1;
+    }
+
+    private int parseInt(int off, int end)
+    {
+        if (off == end)
+            throw new IllegalStateException("Expected a number, but got '" + line(off, end) + "'");
+        int value = 0;
+        for (int i = off; i < end; i++)
+        {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Expected a number, but got '" + line(off, end) + "'");
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private String line(int off, int end)
+    {
+        return new String(buf, off, end - off, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Tiny cache for the message and block names, which are repeated in every message.
+     */
+    static final class StringCache
+    {
+        private final byte[][] bytes = new byte[128][];
+        private final String[] strings = new String[128];
+
+        String get(byte[] buf, int off, int end)
+        {
+            int hash = 1;
+            for (int i = off; i < end; i++)
+                hash = 31 * hash + buf[i];
+            int slot = (hash ^ (hash >>> 16)) & (bytes.length - 1);
+
+            byte[] cached = bytes[slot];
+            if (cached != null && cached.length == end - off)
+            {
+                boolean equal = true;
+                for (int i = 0; i < cached.length; i++)
+                {
+                    if (cached[i] != buf[off + i])
+                    {
+                        equal = false;
+                        break;
+                    }
+                }
+                if (equal)
+                    return strings[slot];
+            }
+
+            byte[] b = new byte[end - off];
+            System.arraycopy(buf, off, b, 0, b.length);
+            String s = new String(b, StandardCharsets.UTF_8);
+            bytes[slot] = b;
+            strings[slot] = s;
+            return s;
+        }
+    }
 }
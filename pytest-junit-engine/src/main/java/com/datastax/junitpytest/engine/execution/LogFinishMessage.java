@@ -16,11 +16,13 @@
 package com.datastax.junitpytest.engine.execution;
 
 import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-import com.datastax.junitpytest.common.IOUtil;
 import com.datastax.junitpytest.engine.exceptions.PytestSkippedException;
 import com.datastax.junitpytest.engine.exceptions.PytestUnknownException;
 import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.reporting.ReportEntry;
 
 class LogFinishMessage extends Message
 {
@@ -58,11 +60,7 @@ class LogFinishMessage extends Message
 
             String outputs = block("outputs");
             if (outputs != null)
-            {
-                String testClass = testHandler.currentTestClass();
-                String testCase = testHandler.currentTestCase();
-                IOUtil.copyOuptuts(testHandler.testenv.getPytestOutputs(), testHandler.testenv.getWorkingDirectory(), outputs, testClass, testCase);
-            }
+                testHandler.collectOutputs(outputs);
         }
 
         // blockHeader("longrepr_fspath");
@@ -87,6 +85,15 @@ class LogFinishMessage extends Message
                 System.err.println(String.format("pytest/runtest_logfinish: '%s', '%s', '%s', '%s', '%s', '%s'",
                                                  nodeid, fspath, lineNum, domain, resultCategory, resultWord));
 
+            testHandler.phaseDurations(durationNanos("duration_setup"),
+                                       durationNanos("duration_call"),
+                                       durationNanos("duration_teardown"));
+            reportDurations(testHandler);
+
+            String coveredFiles = block("covered_files");
+            if (coveredFiles != null)
+                testHandler.coveredFiles(nodeid, fspath, domain, coveredFiles, "passed".equals(resultCategory) || "skipped".equals(resultCategory));
+
             switch (resultCategory)
             {
                 case "passed":
@@ -120,10 +127,56 @@ class LogFinishMessage extends Message
         }
     }
 
+    /**
+     * Publishes the durations of the test phases and of the fixtures set up for the test as a report entry.
+     */
+    private void reportDurations(TestHandler testHandler)
+    {
+        Map<String, String> durations = new LinkedHashMap<>();
+        for (String phase : new String[]{ "setup", "call", "teardown" })
+        {
+            String duration = block("duration_" + phase);
+            if (duration != null)
+                durations.put(phase + "Duration", duration);
+        }
+
+        // one "<fixture> TAB <scope> TAB <seconds>" line per fixture
+        String fixtures = block("fixtures");
+        if (fixtures != null)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (String line : fixtures.split("\n"))
+            {
+                String[] parts = line.split("\t");
+                if (parts.length != 3)
+                    continue;
+                double seconds = Double.parseDouble(parts[2]);
+                testHandler.fixtureSetup(parts[0], parts[1], (long) (seconds * 1_000_000_000d));
+                if (sb.length() > 0)
+                    sb.append(", ");
+                sb.append(parts[0]).append(" (").append(parts[1]).append(") ").append(parts[2]);
+            }
+            if (sb.length() > 0)
+                durations.put("fixtureSetups", sb.toString());
+        }
+
+        if (!durations.isEmpty())
+            testHandler.reportEntry(ReportEntry.from(durations));
+    }
+
+    /**
+     * Duration of a test phase reported by pytest in seconds, converted to nanoseconds.
+     */
+    private long durationNanos(String key)
+    {
+        String duration = block(key);
+        return duration != null ? (long) (Double.parseDouble(duration) * 1_000_000_000d) : 0L;
+    }
+
     private void maybePrint(PrintStream out, String key)
     {
-        String msg = block(key);
-        if (msg == null || msg.isEmpty())
+        Block block = blockMap.get(key);
+        if (block == null || block.length() == 0)
             return;
 
         int linelen = 150;
@@ -146,6 +199,6 @@ class LogFinishMessage extends Message
             out.println("=== " + key);
         }
 
-        out.println(msg);
+        block.printTo(out);
     }
 }
@@ -20,7 +20,7 @@ import java.util.Map;
 
 abstract class Message
 {
-    Map<String, String> blockMap = new HashMap<>();
+    final Map<String, Block> blockMap = new HashMap<>();
 
     static Message create(String message)
     {
@@ -50,7 +50,17 @@ abstract class Message
 
     String block(String key)
     {
-        return blockMap.get(key);
+        Block block = blockMap.get(key);
+        return block != null ? block.asString() : null;
+    }
+
+    /**
+     * Releases the resources held by the blocks of this message, called after {@link #execute(TestHandler)}.
+     */
+    void release()
+    {
+        for (Block block : blockMap.values())
+            block.release();
     }
 
     abstract void execute(TestHandler testHandler);
@@ -0,0 +1,103 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.datastax.junitpytest.common.IOUtil;
+
+/**
+ * Collects the output files registered by tests into the pytest-outputs directory on a bounded background
+ * executor, so the message loop is not stalled by huge outputs.
+ * <p>
+ * Outputs for the same test (e.g. for a re-run of a flaky test) are collected in order. When the queue is full,
+ * the collection runs in the calling thread. {@link #flush()} must be called before the test run is reported
+ * as finished.
+ */
+final class OutputCollector
+{
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final Testenv testenv;
+    private final Map<Path, CompletableFuture<Void>> pending = new HashMap<>();
+    private ThreadPoolExecutor executor;
+
+    OutputCollector(Testenv testenv)
+    {
+        this.testenv = testenv;
+    }
+
+    void collect(String outputs, String testClass, String testCase)
+    {
+        Runnable task = () -> IOUtil.copyOuptuts(testenv.getPytestOutputs(), testenv.getWorkingDirectory(), outputs,
+                                                 testClass, testCase, testenv.getOutputMode());
+        int threads = testenv.getOutputThreads();
+        if (threads <= 0)
+        {
+            task.run();
+            return;
+        }
+
+        if (executor == null)
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                              new ArrayBlockingQueue<>(threads * 16),
+                                              r -> {
+                                                  Thread t = new Thread(r, "pytest outputs " + threadCounter.getAndIncrement());
+                                                  t.setDaemon(true);
+                                                  return t;
+                                              },
+                                              new ThreadPoolExecutor.CallerRunsPolicy());
+
+        if (pending.size() >= 1024)
+            pending.values().removeIf(CompletableFuture::isDone);
+        Path target = testenv.getPytestOutputs().resolve(testClass).resolve(testCase);
+        CompletableFuture<Void> previous = pending.get(target);
+        pending.put(target, previous == null
+                            ? CompletableFuture.runAsync(task, executor)
+                            : previous.thenRunAsync(task, executor));
+    }
+
+    /**
+     * Waits until all outputs have been collected.
+     */
+    void flush()
+    {
+        if (executor == null)
+            return;
+        try
+        {
+            CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0])).join();
+        }
+        catch (RuntimeException e)
+        {
+            // IOUtil.copyOuptuts only logs failures, so this is unexpected
+            e.printStackTrace();
+        }
+        finally
+        {
+            pending.clear();
+            executor.shutdown();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import com.datastax.junitpytest.engine.PytestClassInfo;
+import com.datastax.junitpytest.engine.TestCaseDescriptor;
+import com.datastax.junitpytest.engine.TestClassDescriptor;
+import org.junit.platform.engine.TestDescriptor;
+
+/**
+ * Computes the {@code pytest} arguments for the selected test classes and test cases, in time linear to the number
+ * of collected tests of the selected classes.
+ * <p>
+ * Selections are collapsed to the coarsest possible {@code pytest} argument: the whole module, if all collected
+ * classes of a module are completely selected, the whole class, the whole (parametrized) method or the individual
+ * test.
+ */
+final class PytestArgumentPlanner
+{
+    private PytestArgumentPlanner()
+    {
+    }
+
+    static List<String> plan(List<TestClassDescriptor> testClasses)
+    {
+        return plan(testClasses, testCase -> true);
+    }
+
+    /**
+     * Computes the arguments for the test cases of the given classes that match {@code include}.
+     */
+    static List<String> plan(List<TestClassDescriptor> testClasses, Predicate<TestDescriptor> include)
+    {
+        // Per class either the arguments for methods/tests or null, if the whole class is selected
+        Map<TestClassDescriptor, List<String>> classArguments = new HashMap<>();
+        Map<String, Integer> wholeClassesPerModule = new HashMap<>();
+        for (TestClassDescriptor testClass : testClasses)
+        {
+            List<String> arguments = planClass(testClass, include);
+            classArguments.put(testClass, arguments);
+            if (arguments == null)
+                wholeClassesPerModule.merge(testClass.getInfo().getFile(), 1, Integer::sum);
+        }
+
+        Set<String> arguments = new LinkedHashSet<>();
+        for (TestClassDescriptor testClass : testClasses)
+        {
+            PytestClassInfo info = testClass.getInfo();
+            List<String> args = classArguments.get(testClass);
+            if (args != null)
+                arguments.addAll(args);
+            else if (info.getModuleClassCount() > 0 && wholeClassesPerModule.get(info.getFile()) == info.getModuleClassCount())
+                arguments.add(info.getFile());
+            else
+                arguments.add(testClass.toPytestArgument());
+        }
+        return new ArrayList<>(arguments);
+    }
+
+    /**
+     * Returns the arguments for the selected methods and tests of the class or {@code null}, if the whole class is
+     * selected.
+     */
+    private static List<String> planClass(TestClassDescriptor testClass, Predicate<TestDescriptor> include)
+    {
+        PytestClassInfo info = testClass.getInfo();
+
+        Set<String> selected = new LinkedHashSet<>();
+        for (TestDescriptor child : testClass.getChildren())
+            if (child instanceof TestCaseDescriptor && include.test(child))
+                selected.add(((TestCaseDescriptor) child).getTest());
+
+        List<String> arguments = new ArrayList<>();
+        boolean wholeClass = true;
+        int known = 0;
+        for (String method : info.getMethodNames())
+        {
+            List<String> tests = info.testsForMethod(method);
+            List<String> selectedTests = new ArrayList<>(tests.size());
+            for (String test : tests)
+                if (selected.contains(test))
+                    selectedTests.add(test);
+            known += selectedTests.size();
+
+            if (selectedTests.size() == tests.size())
+            {
+                arguments.add(testClass.toPytestArgument() + "::" + method);
+            }
+            else
+            {
+                wholeClass = false;
+                for (String test : selectedTests)
+                    arguments.add(testClass.toPytestArgument() + "::" + test);
+            }
+        }
+
+        // Selected tests that are not in the collected tests (should not happen)
+        if (known != selected.size())
+        {
+            wholeClass = false;
+            Set<String> unknown = new LinkedHashSet<>(selected);
+            for (String method : info.getMethodNames())
+                unknown.removeAll(info.testsForMethod(method));
+            for (String test : unknown)
+                arguments.add(testClass.toPytestArgument() + "::" + test);
+        }
+
+        return wholeClass && !selected.isEmpty() ? null : arguments;
+    }
+}
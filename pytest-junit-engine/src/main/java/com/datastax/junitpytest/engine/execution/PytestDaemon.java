@@ -0,0 +1,295 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client for the long-lived {@code junitpytest.daemon}, which keeps pytest, the plugins and the test modules
+ * imported and runs each request in a forked process.
+ * <p>
+ * There is one daemon per virtual environment, working directory, pytest options and frozen requirements. Its
+ * state file, which contains the port and the token, and its log file are located in the virtual environment.
+ * The daemon is started, if it is not running or stale. See the documentation of the Python module for the
+ * protocol.
+ */
+final class PytestDaemon
+{
+    private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Testenv testenv;
+    private final File workingDirectory;
+    private final Map<String, String> environment;
+    private final Path stateFile;
+    private final Path lockFile;
+    private final Path logFile;
+    private long childPid;
+
+    PytestDaemon(Testenv testenv, File workingDirectory, Map<String, String> environment) throws IOException
+    {
+        this.testenv = testenv;
+        this.workingDirectory = workingDirectory;
+        this.environment = environment;
+
+        String key = daemonKey(testenv, workingDirectory);
+        Path venvDir = testenv.getVenvDir();
+        this.stateFile = venvDir.resolve("junitpytest-daemon-" + key + ".state");
+        this.lockFile = venvDir.resolve("junitpytest-daemon-" + key + ".lock");
+        this.logFile = venvDir.resolve("junitpytest-daemon-" + key + ".log");
+    }
+
+    /**
+     * Runs {@code pytest} with the given arguments in the daemon, starts the daemon if necessary.
+     *
+     * @param args   arguments for {@code pytest}, without the {@code pytest} executable
+     * @param output file that receives stdout and stderr of the forked process
+     * @return the channel to read the messages of the pytest-plugin from
+     */
+    SocketChannel run(List<String> args, Path output) throws IOException, InterruptedException
+    {
+        for (int attempt = 0; ; attempt++)
+        {
+            SocketChannel channel = connect();
+            try
+            {
+                StringBuilder request = new StringBuilder();
+                for (String arg : args)
+                    request.append("ARG ").append(arg).append('\n');
+                for (Map.Entry<String, String> env : environment.entrySet())
+                    request.append("ENV ").append(env.getKey()).append('=').append(env.getValue()).append('\n');
+                request.append("OUTPUT ").append(output.toAbsolutePath()).append('\n');
+                request.append("RUN\n");
+                ByteBuffer buffer = ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+
+                String response = readLine(channel);
+                // "OK <pid>", just "OK" from daemons started by an older version
+                if (response != null && (response.equals("OK") || response.startsWith("OK ")))
+                {
+                    childPid = response.length() > 3 ? Long.parseLong(response.substring(3)) : 0L;
+                    return channel;
+                }
+                channel.close();
+                // The daemon responds with STALE or closes the connection, when it exits (idle timeout)
+                if (!("STALE".equals(response) || response == null) || attempt > 0)
+                    throw new IOException("Unexpected response from pytest daemon: " + response);
+                System.out.println("pytest daemon is stale or exiting, starting a new one");
+                deleteStateFile();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Kills the forked process started by the last call to {@link #run(List, Path)}, e.g. because a test timed out
+     * or the test run has been aborted.
+     */
+    void kill()
+    {
+        if (childPid <= 0L)
+            return;
+        try (SocketChannel channel = tryConnect())
+        {
+            if (channel == null)
+                return;
+            ByteBuffer request = ByteBuffer.wrap(("KILL " + childPid + '\n').getBytes(StandardCharsets.UTF_8));
+            while (request.hasRemaining())
+                channel.write(request);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not kill pytest process " + childPid + " in the pytest daemon: " + e);
+        }
+    }
+
+    /**
+     * Connects to the running daemon, sends the token and starts the daemon, if it's not running.
+     */
+    private SocketChannel connect() throws IOException, InterruptedException
+    {
+        // FileLock only guards against other processes, not against other threads of the same JVM
+        synchronized (PytestDaemon.class)
+        {
+            try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+            {
+                // Released when the channel is closed
+                lockChannel.lock();
+                SocketChannel channel = tryConnect();
+                if (channel != null)
+                    return channel;
+
+                deleteStateFile();
+                startDaemon();
+                channel = tryConnect();
+                if (channel == null)
+                    throw new IOException("Could not connect to pytest daemon, see " + logFile);
+                return channel;
+            }
+        }
+    }
+
+    private SocketChannel tryConnect() throws IOException
+    {
+        String[] state = readState();
+        if (state == null)
+            return null;
+        SocketChannel channel;
+        try
+        {
+            channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                                               Integer.parseInt(state[0])));
+        }
+        catch (ConnectException e)
+        {
+            return null;
+        }
+        ByteBuffer token = ByteBuffer.wrap((state[1] + '\n').getBytes(StandardCharsets.UTF_8));
+        while (token.hasRemaining())
+            channel.write(token);
+        return channel;
+    }
+
+    private void startDaemon() throws IOException, InterruptedException
+    {
+        List<String> command = new ArrayList<>();
+        command.add(testenv.getVenvBinDir().resolve("python").toString());
+        command.add("-m");
+        command.add("junitpytest.daemon");
+        command.add("--state-file");
+        command.add(stateFile.toString());
+        command.add("--idle-timeout");
+        command.add(Long.toString(testenv.getDaemonIdleTimeout()));
+        command.add("--");
+        command.addAll(testenv.getPytestOptions());
+
+        System.out.println("Starting pytest daemon with " + String.join(" ", command) + ", log in " + logFile);
+
+        ProcessBuilder processBuilder = new ProcessBuilder(command).directory(workingDirectory)
+                                                                   .redirectErrorStream(true)
+                                                                   .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile.toFile()));
+        processBuilder.environment().clear();
+        processBuilder.environment().putAll(environment);
+        // Intentionally not registered with a ProcessRunner, the daemon must survive this JVM.
+        Process process = processBuilder.start();
+
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (readState() == null)
+        {
+            if (!process.isAlive())
+                throw new IOException("pytest daemon exited with exit code " + process.exitValue() + ", see " + logFile);
+            if (System.currentTimeMillis() > deadline)
+            {
+                process.destroy();
+                throw new IOException("pytest daemon did not start within " + STARTUP_TIMEOUT_MILLIS + "ms, see " + logFile);
+            }
+            Thread.sleep(50L);
+        }
+    }
+
+    private String[] readState() throws IOException
+    {
+        try
+        {
+            String[] state = new String(Files.readAllBytes(stateFile), StandardCharsets.UTF_8).trim().split(" ");
+            return state.length == 2 ? state : null;
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+    }
+
+    private void deleteStateFile() throws IOException
+    {
+        Files.deleteIfExists(stateFile);
+    }
+
+    /**
+     * Reads the response line or returns {@code null}, if the connection has been closed.
+     */
+    private static String readLine(SocketChannel channel) throws IOException
+    {
+        // Read byte-by-byte to not consume any bytes of the messages following the response line.
+        ByteBuffer single = ByteBuffer.allocate(1);
+        StringBuilder line = new StringBuilder();
+        while (line.length() < 64)
+        {
+            single.clear();
+            if (channel.read(single) == -1)
+                return null;
+            char c = (char) (single.get(0) & 0xff);
+            if (c == '\n')
+                break;
+            line.append(c);
+        }
+        return line.toString();
+    }
+
+    private static String daemonKey(Testenv testenv, File workingDirectory) throws IOException
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(workingDirectory.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            for (String option : testenv.getPytestOptions())
+            {
+                digest.update((byte) 0);
+                digest.update(option.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+            try
+            {
+                digest.update(Files.readAllBytes(testenv.getFrozenRequirements()));
+            }
+            catch (NoSuchFileException e)
+            {
+                // no frozen requirements
+            }
+            StringBuilder sb = new StringBuilder();
+            byte[] hash = digest.digest();
+            for (int i = 0; i < 8; i++)
+                sb.append(String.format("%02x", hash[i]));
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
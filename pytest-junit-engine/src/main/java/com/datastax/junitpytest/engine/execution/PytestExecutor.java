@@ -15,23 +15,39 @@
  */
 package com.datastax.junitpytest.engine.execution;
 
-import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
+import com.datastax.junitpytest.common.Jfr;
 import com.datastax.junitpytest.common.PathBinary;
 import com.datastax.junitpytest.common.ProcessRunner;
 import com.datastax.junitpytest.common.PytestVersion;
 import com.datastax.junitpytest.common.VirtualEnv;
-import com.datastax.junitpytest.engine.TestCaseDescriptor;
 import com.datastax.junitpytest.engine.TestClassDescriptor;
 import org.junit.platform.engine.ExecutionRequest;
 import org.junit.platform.engine.TestDescriptor;
@@ -40,6 +56,19 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class PytestExecutor
 {
+    private static final OutputStream DISCARD = new OutputStream()
+    {
+        @Override
+        public void write(int b)
+        {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+        }
+    };
+
     private final ExecutionRequest request;
 
     public PytestExecutor(ExecutionRequest request)
@@ -50,11 +79,41 @@ public class PytestExecutor
     public void execute()
     {
         Testenv testenv = new Testenv(request.getConfigurationParameters());
+        TestTimings timings = TestTimings.load(testenv.getTimingsFile());
 
-        Optional<List<String>> command = generatePytestCommand(testenv,
-                                                               request.getRootTestDescriptor());
+        File pythonExecutable = PathBinary.fileForExecutableFromPath(() -> new RuntimeException("No executable found for " + Arrays.toString(testenv.getPythonExec())),
+                                                                     testenv.getPythonExec()).toFile();
+        String pytestPluginFilename = "junit-pytest-plugin".replace('-', '_') +
+                                      "-" + PytestVersion.get().getPyVersion() +
+                                      "-py3-none-any.whl";
+        String pytestPluginResource = "com/datastax/junitpytest/junit-pytest-plugin/dist/" + pytestPluginFilename;
+        URL pytestPlugin = PytestExecutor.class.getClassLoader().getResource(pytestPluginResource);
+        Collection<String> sourceRequirements = testenv.getSourceRequirements().values();
 
-        if (!command.isPresent())
+        if (testenv.getVenvCache() != null)
+        {
+            try
+            {
+                testenv.useVenvDir(VirtualEnv.cachedVenvDirectory(testenv.getVenvCache(),
+                                                                  pythonExecutable,
+                                                                  testenv.getFrozenRequirements(),
+                                                                  pytestPlugin,
+                                                                  testenv.getPipOptions(),
+                                                                  sourceRequirements));
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            System.out.println("Using virtual environment " + testenv.getVenvDir() + " from the cache");
+        }
+
+        List<List<TestClassDescriptor>> shards = shardTestClasses(testenv, timings, request.getRootTestDescriptor())
+                                                 .stream()
+                                                 .filter(shard -> generatePytestCommand(testenv, shard).isPresent())
+                                                 .collect(Collectors.toList());
+
+        if (shards.isEmpty())
         {
             System.out.println("No tests to execute");
             return;
@@ -65,41 +124,244 @@ public class PytestExecutor
                                                testenv.getFrozenRequirements(),
                                                PathBinary.fileForExecutableFromPath(() -> new RuntimeException("No executable found for " + Arrays.toString(testenv.getVirtualenvExec())),
                                                                                     testenv.getVirtualenvExec()).toFile(),
-                                               PathBinary.fileForExecutableFromPath(() -> new RuntimeException("No executable found for " + Arrays.toString(testenv.getPythonExec())),
-                                                                                    testenv.getPythonExec()).toFile(),
+                                               pythonExecutable,
                                                testenv.getPipOptions(),
-                                               testenv.getPipEnv());
+                                               testenv.getPipEnv(),
+                                               testenv.getWheelhouse());
 
+        // Concurrently running test JVMs may use the same virtual environment, let only one of them modify it.
+        Jfr.Event lockEvent = Jfr.venv("lock", testenv.getVenvDir());
         try
         {
-
-            String pytestPluginFilename = "junit-pytest-plugin".replace('-', '_') +
-                                          "-" + PytestVersion.get().getPyVersion() +
-                                          "-py3-none-any.whl";
-            String pytestPluginResource = "com/datastax/junitpytest/junit-pytest-plugin/dist/" + pytestPluginFilename;
-
-            virtualEnv.createVenvIfNecessary();
-            virtualEnv.checkFrozenRequirements(PytestExecutor.class
-                                                       .getClassLoader()
-                                                       .getResource(pytestPluginResource),
-                                               testenv.getVenvDir().resolve(pytestPluginFilename));
-            for (String sourceReq : testenv.getSourceRequirements().values())
-                virtualEnv.installSourceRequirement(sourceReq);
+            Closeable venvLock = virtualEnv.lock();
+            try
+            {
+                lockEvent.commit();
+                virtualEnv.createVenvIfNecessary();
+                Jfr.Event checkEvent = Jfr.venv("check", testenv.getVenvDir());
+                boolean upToDate = virtualEnv.isUpToDate(pytestPlugin, sourceRequirements);
+                checkEvent.commit();
+                if (upToDate)
+                {
+                    System.out.println("Virtual environment " + testenv.getVenvDir() + " is up to date");
+                }
+                else
+                {
+                    virtualEnv.checkFrozenRequirements(pytestPlugin,
+                                                       testenv.getVenvDir().resolve(pytestPluginFilename));
+                    for (String sourceReq : sourceRequirements)
+                        virtualEnv.installSourceRequirement(sourceReq);
+                    virtualEnv.writeStamp(pytestPlugin, sourceRequirements);
+                }
+            }
+            finally
+            {
+                venvLock.close();
+            }
         }
         catch (IOException e)
         {
             throw new RuntimeException(e);
         }
 
-        TestHandler testHandler = new TestHandler(request.getRootTestDescriptor(),
-                                                  request.getEngineExecutionListener(),
-                                                  testenv);
+        execute(testenv, timings, shards);
+    }
+
+    /**
+     * Runs {@code pytest} for the given shards in the already prepared virtual environment and saves the collected
+     * timings and reports afterwards.
+     */
+    void execute(Testenv testenv, TestTimings timings, List<List<TestClassDescriptor>> shards)
+    {
+        try
+        {
+            if (shards.size() == 1)
+            {
+                TestHandler testHandler = new TestHandler(request.getRootTestDescriptor(),
+                                                          request.getEngineExecutionListener(),
+                                                          testenv,
+                                                          timings,
+                                                          new DescriptorIndex(request.getRootTestDescriptor()),
+                                                          new FailureBudget(testenv));
+                runPytest(testenv, shards.get(0), testHandler, testHandler, -1);
+            }
+            else
+            {
+                runWorkers(testenv, timings, shards);
+            }
+        }
+        finally
+        {
+            try
+            {
+                timings.save();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not save test timings to " + testenv.getTimingsFile() + ": " + e);
+            }
+            try
+            {
+                if (testenv.getImpact() != null)
+                    testenv.getImpact().save();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not save test impact: " + e);
+            }
+            try
+            {
+                if (testenv.getFixtureCosts() != null)
+                    testenv.getFixtureCosts().save();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not save the fixture costs report: " + e);
+            }
+        }
+    }
+
+    /**
+     * Runs one {@code pytest} process per command concurrently. The test-descriptor tree and the
+     * {@link org.junit.platform.engine.EngineExecutionListener} are shared by all workers, so all messages are
+     * handled while holding the monitor of the {@link WorkerExecutionListener}.
+     */
+    private void runWorkers(Testenv testenv, TestTimings timings, List<List<TestClassDescriptor>> shards)
+    {
+        TestDescriptor rootTestDescriptor = request.getRootTestDescriptor();
+        WorkerExecutionListener listener = new WorkerExecutionListener(rootTestDescriptor,
+                                                                       request.getEngineExecutionListener());
+
+        DescriptorIndex descriptorIndex = new DescriptorIndex(rootTestDescriptor);
+        FailureBudget failureBudget = new FailureBudget(testenv);
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(shards.size(), r -> {
+            Thread t = new Thread(r, "pytest worker " + threadCounter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        RuntimeException failure = null;
+        listener.rootStarted();
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++)
+            {
+                int worker = i;
+                TestHandler testHandler = new TestHandler(rootTestDescriptor, listener, testenv, timings, descriptorIndex, failureBudget);
+                futures.add(executor.submit(() -> runPytest(testenv, shards.get(worker), testHandler, listener, worker)));
+            }
+            for (Future<?> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    RuntimeException ex = e.getCause() instanceof RuntimeException
+                                          ? (RuntimeException) e.getCause()
+                                          : new RuntimeException(e.getCause());
+                    if (failure == null)
+                        failure = ex;
+                    else
+                        failure.addSuppressed(ex);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            failure = new RuntimeException(e);
+        }
+        finally
+        {
+            executor.shutdownNow();
+            listener.rootFinished(failure);
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Runs {@code pytest} for the given test classes and passes the received messages to the {@code testHandler}.
+     * If {@link Testenv#isResume() resume} is enabled and {@code pytest} crashed, was killed or timed out in the
+     * middle of the test session, {@code pytest} is relaunched for the tests that have not been reported yet.
+     *
+     * @param lock   monitor held while calling the {@code testHandler}
+     * @param worker ID of the worker, passed in the {@code JUNITPYTEST_WORKER} environment variable, or {@code -1}
+     *               if there is only one {@code pytest} process
+     */
+    private void runPytest(Testenv testenv, List<TestClassDescriptor> testClasses, TestHandler testHandler, Object lock, int worker)
+    {
+        try
+        {
+            synchronized (lock)
+            {
+                testHandler.processStart();
+            }
+
+            Optional<List<String>> command = generatePytestCommand(testenv, testClasses);
+            while (command.isPresent())
+            {
+                ProcessBuilder processBuilder = processBuilder(testenv, command.get(), worker);
+                String commandLine = String.join(" ", command.get());
+                synchronized (lock)
+                {
+                    testHandler.pytestLaunched(commandLine);
+                }
+                Jfr.Event processEvent = Jfr.pytest("process", commandLine);
+                int exitCode = testenv.isDaemon()
+                               ? runInDaemon(testenv, processBuilder, testHandler, lock)
+                               : runProcess(testenv, processBuilder, testHandler, lock);
+                processEvent.commit();
+
+                boolean resume;
+                synchronized (lock)
+                {
+                    resume = testHandler.processExited(exitCode) && testenv.isResume();
+                }
+                if (!resume)
+                    break;
 
-        StringBuilder startPytestMsg = new StringBuilder("Starting pytest with ").append(String.join(" ", command.get()));
+                // pytest is not running, nothing modifies the state of the testHandler
+                command = generatePytestCommand(testenv, testClasses, testHandler::isPending);
+                if (command.isPresent())
+                    System.out.println("Relaunching pytest for the tests that have not been run");
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            synchronized (lock)
+            {
+                testHandler.failure(e);
+            }
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            synchronized (lock)
+            {
+                testHandler.processFinished();
+            }
+            System.out.println("pytest done");
+        }
+    }
 
-        ProcessBuilder processBuilder = new ProcessBuilder(command.get()).directory(testenv.getWorkingDirectory().toFile());
+    private static ProcessBuilder processBuilder(Testenv testenv, List<String> command, int worker)
+    {
+        StringBuilder startPytestMsg = new StringBuilder("Starting pytest with ").append(String.join(" ", command));
+
+        ProcessBuilder processBuilder = new ProcessBuilder(command).directory(testenv.getWorkingDirectory().toFile());
         processBuilder.environment().putAll(testenv.getPytestEnv());
         startPytestMsg.append("\n  with configured environment: ").append(testenv.getPytestEnv());
+        if (worker >= 0)
+        {
+            processBuilder.environment().put("JUNITPYTEST_WORKER", Integer.toString(worker));
+            startPytestMsg.append("\n  as worker ").append(worker);
+        }
         String newPath = testenv.getVenvBinDir() + File.pathSeparator + System.getenv("PATH");
         if (System.getenv("JAVA_HOME") == null)
         {
@@ -113,79 +375,227 @@ public class PytestExecutor
         }
         System.out.println(startPytestMsg);
         processBuilder.environment().put("PATH", newPath);
-        try
-        {
-            InboundHandler buffer = new InboundHandler();
+        return processBuilder;
+    }
 
-            testHandler.processStart();
+    /**
+     * Runs {@code pytest} as a child process.
+     *
+     * @return exit code of {@code pytest} or {@code -1}, if {@code pytest} has been terminated
+     */
+    private static int runProcess(Testenv testenv, ProcessBuilder processBuilder, TestHandler testHandler, Object lock)
+            throws IOException, InterruptedException
+    {
+        try (SocketEventChannel eventChannel = testenv.isSocketEventChannel() ? new SocketEventChannel() : null)
+        {
+            if (eventChannel != null)
+                eventChannel.configure(processBuilder.command(), processBuilder.environment());
 
             Process process = processBuilder.start();
             ProcessRunner processRunner = new ProcessRunner(process, 60, SECONDS).register();
-            byte[] stderrBuf = new byte[4096];
-            try (BufferedInputStream input = new BufferedInputStream(process.getInputStream()); InputStream error = process.getErrorStream())
+            // The remaining protocol messages on stdout, e.g. after the failure budget has been exhausted, must
+            // not be copied to System.out, when the process is stopped.
+            if (eventChannel == null)
+                processRunner.withCapturedStdout(DISCARD);
+            // stderr is drained by a separate thread, the protocol messages are read from stdout using blocking
+            // reads in this thread, so an idle pytest process does not cost any CPU here.
+            // With the socket event-channel, stdout is just another log stream and drained by a separate thread, too.
+            Thread stderrPump = StreamPump.start(process.getErrorStream(), System.err, "pytest stderr " + process);
+            Thread stdoutPump = eventChannel != null
+                                ? StreamPump.start(process.getInputStream(), System.out, "pytest stdout " + process)
+                                : null;
+            TestWatchdog watchdog = testenv.getTestTimeout() > 0
+                                    ? new TestWatchdog(process, testHandler, testenv.getTestTimeout())
+                                    : null;
+            try (ReadableByteChannel input = eventChannel != null
+                                             ? eventChannel.accept(process)
+                                             : Channels.newChannel(process.getInputStream()))
             {
-                while (true)
+                if (input != null)
+                    handleMessages(input, testHandler, lock);
+
+                if (testHandler.isAborted())
                 {
-                    int av = error.available();
-                    if (av > 0)
-                    {
-                        int rd = Math.min(av, stderrBuf.length);
-                        rd = error.read(stderrBuf, 0, rd);
-                        if (rd > 0)
-                            System.err.write(stderrBuf, 0, rd);
-                    }
-
-                    Message message = buffer.readMessage(input);
-                    if (message != null)
-                    {
-                        message.execute(testHandler);
-                        continue;
-                    }
-
-                    if (error.available() > 0 || input.available() > 0)
-                        continue;
-
-                    if (process.isAlive())
-                    {
-                        Thread.sleep(1L);
-                        continue;
-                    }
-
-                    try
-                    {
-                        int exitCode = process.exitValue(); // TODO maybe evaluate the exit-code
-                        System.out.println("pytest finished with exit code " + exitCode);
-                        break;
-                    }
-                    catch (IllegalThreadStateException e)
-                    {
-                        // still running
-                    }
+                    // pytest is terminated by ProcessRunner.stop() below, after closing the protocol stream
+                    System.out.println("Failure budget exhausted, terminating pytest");
+                    return -1;
                 }
+                int exitCode = process.waitFor();
+                System.out.println("pytest finished with exit code " + exitCode);
+                return exitCode;
             }
             finally
             {
+                if (watchdog != null)
+                    watchdog.close();
                 processRunner.stop();
+                stderrPump.join();
+                if (stdoutPump != null)
+                    stdoutPump.join();
             }
         }
-        catch (Exception e)
+    }
+
+    /**
+     * Runs {@code pytest} in the {@link PytestDaemon}, the output of the forked {@code pytest} process is printed
+     * when it has finished. The forked process is killed, when a test times out or the failure budget is exhausted.
+     *
+     * @return always {@code -1}, the exit code of the forked {@code pytest} process is not known
+     */
+    private static int runInDaemon(Testenv testenv, ProcessBuilder processBuilder, TestHandler testHandler, Object lock)
+            throws IOException, InterruptedException
+    {
+        PytestDaemon daemon = new PytestDaemon(testenv, processBuilder.directory(), processBuilder.environment());
+        List<String> command = processBuilder.command();
+        Path output = Files.createTempFile("pytest-daemon-", ".log");
+        try
         {
-            e.printStackTrace();
-            testHandler.failure(e);
-            throw new RuntimeException(e);
+            try (SocketChannel input = daemon.run(command.subList(1, command.size()), output))
+            {
+                TestWatchdog watchdog = testenv.getTestTimeout() > 0
+                                        ? new TestWatchdog("pytest watchdog daemon", input::isOpen, daemon::kill,
+                                                           testHandler, testenv.getTestTimeout())
+                                        : null;
+                try
+                {
+                    handleMessages(input, testHandler, lock);
+                }
+                finally
+                {
+                    if (watchdog != null)
+                        watchdog.close();
+                }
+
+                if (testHandler.isAborted())
+                {
+                    System.out.println("Failure budget exhausted, terminating pytest in daemon");
+                    daemon.kill();
+                    return -1;
+                }
+            }
+            System.out.println("pytest finished in daemon");
+            return -1;
         }
         finally
         {
-            testHandler.processFinished();
-            System.out.println("pytest done");
+            Files.copy(output, System.out);
+            Files.delete(output);
         }
     }
 
-    static Optional<List<String>> generatePytestCommand(Testenv testenv, TestDescriptor desc)
+    private static void handleMessages(ReadableByteChannel input, TestHandler testHandler, Object lock) throws IOException
+    {
+        InboundHandler buffer = new InboundHandler(InboundHandler.INITIAL_BUFFER_SIZE, testHandler.testenv.getSpillThreshold());
+        Message message;
+        while (true)
+        {
+            try
+            {
+                message = buffer.readMessage(input);
+            }
+            catch (EOFException e)
+            {
+                // pytest died in the middle of a message, handled like pytest dying between two messages
+                System.err.println(e.getMessage());
+                return;
+            }
+            if (message == null)
+                return;
+
+            try
+            {
+                synchronized (lock)
+                {
+                    if (testHandler.isAborted())
+                        return;
+                    message.execute(testHandler);
+                }
+            }
+            finally
+            {
+                message.release();
+            }
+        }
+    }
+
+    /**
+     * Splits the test classes to execute into at most {@link Testenv#getWorkers()} shards. Test classes are never
+     * split, so class-scoped fixtures work as usual.
+     * <p>
+     * With duration based sharding, the test classes are distributed using the expected durations from
+     * {@code timings} using longest-processing-time-first, i.e. the test class with the longest expected
+     * duration is assigned to the shard with the lowest total expected duration. Otherwise, the test classes are
+     * distributed round-robin. The order of the test classes within a shard is the order of the discovery.
+     */
+    static List<List<TestClassDescriptor>> shardTestClasses(Testenv testenv, TestTimings timings, TestDescriptor desc)
+    {
+        List<TestClassDescriptor> testClasses = desc.getChildren()
+                                                    .stream()
+                                                    .filter(TestClassDescriptor.class::isInstance)
+                                                    .map(TestClassDescriptor.class::cast)
+                                                    .collect(Collectors.toList());
+
+        int workers = Math.max(1, Math.min(testenv.getWorkers(), testClasses.size()));
+        List<List<TestClassDescriptor>> shards = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++)
+            shards.add(new ArrayList<>());
+        if (workers == 1 || !testenv.isDurationSharding())
+        {
+            for (int i = 0; i < testClasses.size(); i++)
+                shards.get(i % workers).add(testClasses.get(i));
+            return shards;
+        }
+
+        Map<TestClassDescriptor, Integer> discoveryOrder = new HashMap<>();
+        Map<TestClassDescriptor, Long> expected = new HashMap<>();
+        for (TestClassDescriptor testClass : testClasses)
+        {
+            discoveryOrder.put(testClass, discoveryOrder.size());
+            expected.put(testClass, timings.expectedMillis(testClass));
+        }
+
+        List<TestClassDescriptor> longestFirst = new ArrayList<>(testClasses);
+        longestFirst.sort(Comparator.comparing(expected::get, Comparator.reverseOrder()));
+        long[] load = new long[workers];
+        for (TestClassDescriptor testClass : longestFirst)
+        {
+            int lowest = 0;
+            for (int i = 1; i < workers; i++)
+                if (load[i] < load[lowest])
+                    lowest = i;
+            shards.get(lowest).add(testClass);
+            load[lowest] += expected.get(testClass);
+        }
+
+        for (int i = 0; i < workers; i++)
+        {
+            shards.get(i).sort(Comparator.comparing(discoveryOrder::get));
+            System.out.println("Worker " + i + ": " + shards.get(i).size() + " test classes, expected duration " + load[i] + "ms");
+        }
+        return shards;
+    }
+
+    static Optional<List<String>> generatePytestCommand(Testenv testenv, List<TestClassDescriptor> testClasses)
+    {
+        return generatePytestCommand(testenv, testClasses, testCase -> true);
+    }
+
+    /**
+     * Generates the {@code pytest} command line for the test cases of the given test classes that match
+     * {@code include} or an empty optional, if there is nothing to run.
+     */
+    static Optional<List<String>> generatePytestCommand(Testenv testenv, List<TestClassDescriptor> testClasses,
+                                                        Predicate<TestDescriptor> include)
     {
         List<String> command = new ArrayList<>();
         command.add(testenv.getVenvBinDir().resolve("pytest").toString());
         command.add("--gradle");
+        if (testenv.isBinaryFraming())
+            command.add("--gradle-framing=binary");
+        if (testenv.getImpact() != null)
+            command.add("--gradle-impact");
+        if (testenv.getTestTimeout() > 0)
+            command.add("--gradle-test-timeout=" + testenv.getTestTimeout());
         command.addAll(testenv.getPytestOptions());
 
         int sz = command.size();
@@ -194,20 +604,7 @@ public class PytestExecutor
         // The operation may add no tests at all, which is fine, but `pytest` must not be run in that
         // case, because running `pytest` without arguments (usually) means to run all tests, which is
         // not intended.
-        desc.getChildren()
-            .stream()
-            .filter(TestClassDescriptor.class::isInstance)
-            .map(TestClassDescriptor.class::cast)
-            .flatMap(testClassDescriptor -> {
-                if (testClassDescriptor.runWholeClass())
-                    return Stream.of(testClassDescriptor.toPytestArgument());
-                return testClassDescriptor.getChildren()
-                                          .stream()
-                                          .filter(TestCaseDescriptor.class::isInstance)
-                                          .map(TestCaseDescriptor.class::cast)
-                                          .map(TestCaseDescriptor::toPytestArgument);
-            })
-            .forEach(command::add);
+        command.addAll(PytestArgumentPlanner.plan(testClasses, include));
 
         return command.size() == sz ? Optional.empty() : Optional.of(command);
     }
@@ -0,0 +1,152 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dedicated channel for the messages from the pytest-plugin, so the messages do not share {@code stdout} with
+ * anything that pytest or the tests print.
+ * <p>
+ * The engine listens on a loopback TCP socket, passes the address via {@code --gradle-channel=HOST:PORT} to the
+ * pytest-plugin, which connects to it. To make sure that the connection is from the pytest process that has been
+ * started by this engine, the plugin must send the token, which it gets via the
+ * {@value #TOKEN_ENV} environment variable, as the first line.
+ */
+final class SocketEventChannel implements Closeable
+{
+    static final String TOKEN_ENV = "JUNITPYTEST_CHANNEL_TOKEN";
+
+    private final ServerSocketChannel server;
+    private final String token;
+
+    SocketEventChannel() throws IOException
+    {
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+
+        byte[] tokenBytes = new byte[16];
+        new SecureRandom().nextBytes(tokenBytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : tokenBytes)
+            sb.append(String.format("%02x", b));
+        this.token = sb.toString();
+    }
+
+    /**
+     * Adds the command line option for the pytest-plugin and the environment variable for the token.
+     */
+    void configure(List<String> command, Map<String, String> environment)
+    {
+        InetSocketAddress address = (InetSocketAddress) server.socket().getLocalSocketAddress();
+        command.add(command.indexOf("--gradle") + 1, "--gradle-channel=" + address.getHostString() + ':' + address.getPort());
+        environment.put(TOKEN_ENV, token);
+    }
+
+    /**
+     * Waits until the pytest-plugin has connected and sent the token.
+     *
+     * @return the channel to read the messages from or {@code null}, if {@code process} exited without connecting
+     */
+    SocketChannel accept(Process process) throws IOException
+    {
+        // Stop waiting for the connection, when the pytest process exits (e.g. because of a usage error).
+        Thread watcher = new Thread(() -> {
+            try
+            {
+                process.waitFor();
+                server.close();
+            }
+            catch (InterruptedException | IOException e)
+            {
+                // ignore
+            }
+        }, "pytest event-channel watcher " + process);
+        watcher.setDaemon(true);
+        watcher.start();
+
+        SocketChannel channel;
+        try
+        {
+            channel = server.accept();
+        }
+        catch (ClosedChannelException e)
+        {
+            // Closed by the watcher while waiting (AsynchronousCloseException) or, if pytest exited early, even
+            // before accept() has been called
+            return null;
+        }
+        finally
+        {
+            watcher.interrupt();
+            server.close();
+        }
+
+        try
+        {
+            verifyToken(channel);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private void verifyToken(SocketChannel channel) throws IOException
+    {
+        // Read byte-by-byte to not consume any bytes after the token line.
+        ByteBuffer single = ByteBuffer.allocate(1);
+        StringBuilder received = new StringBuilder();
+        while (received.length() <= token.length())
+        {
+            single.clear();
+            if (channel.read(single) == -1)
+                throw new EOFException("pytest event-channel closed before receiving the token");
+            char c = (char) (single.get(0) & 0xff);
+            if (c == '\n')
+                break;
+            received.append(c);
+        }
+        if (!token.equals(received.toString()))
+            throw new IllegalStateException("Invalid token received on the pytest event-channel");
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        server.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SocketEventChannel{" + server.socket().getLocalSocketAddress() + '}';
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies everything from an {@link InputStream} to an {@link OutputStream} using blocking reads on a
+ * dedicated daemon thread, until the input stream reaches EOF.
+ */
+final class StreamPump implements Runnable
+{
+    private final InputStream input;
+    private final OutputStream output;
+
+    private StreamPump(InputStream input, OutputStream output)
+    {
+        this.input = input;
+        this.output = output;
+    }
+
+    static Thread start(InputStream input, OutputStream output, String name)
+    {
+        Thread thread = new Thread(new StreamPump(input, output), name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public void run()
+    {
+        byte[] buf = new byte[8192];
+        try
+        {
+            int rd;
+            while ((rd = input.read(buf)) != -1)
+            {
+                output.write(buf, 0, rd);
+                output.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            // The stream is closed when the process gets killed, nothing to worry about
+            if (!"Stream closed".equals(e.getMessage()))
+                e.printStackTrace();
+        }
+    }
+}
@@ -20,11 +20,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.datastax.junitpytest.common.Jfr;
 import com.datastax.junitpytest.common.PytestCollectEntry;
 import com.datastax.junitpytest.engine.PytestClassInfo;
 import com.datastax.junitpytest.engine.TestCaseDescriptor;
 import com.datastax.junitpytest.engine.TestClassDescriptor;
+import com.datastax.junitpytest.engine.exceptions.PytestAbortedException;
 import com.datastax.junitpytest.engine.exceptions.PytestCaseFailedException;
+import com.datastax.junitpytest.engine.exceptions.PytestFailedException;
 import com.datastax.junitpytest.engine.exceptions.PytestNoResultException;
 import org.junit.platform.engine.EngineExecutionListener;
 import org.junit.platform.engine.TestDescriptor;
@@ -32,20 +35,43 @@ import org.junit.platform.engine.TestExecutionResult;
 import org.junit.platform.engine.UniqueId;
 import org.junit.platform.engine.reporting.ReportEntry;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 final class TestHandler
 {
     private final List<TestDescriptor> runningTests = new ArrayList<>();
     private final TestDescriptor rootTestDescriptor;
     private final EngineExecutionListener executionListener;
+    private final TestTimings timings;
+    private final DescriptorIndex descriptorIndex;
+    private final FailureBudget failureBudget;
+    private final OutputCollector outputCollector;
+    private final Map<UniqueId, Long> startedAt = new HashMap<>();
     final Testenv testenv;
     String internalError;
     final Map<UniqueId, Integer> finished = new HashMap<>();
-
-    TestHandler(TestDescriptor rootTestDescriptor, EngineExecutionListener executionListener, Testenv testenv)
+    private int finishedAtLaunch;
+    /**
+     * {@link System#nanoTime()} when the running test case has been started or {@code 0}, read by the
+     * {@link TestWatchdog}.
+     */
+    private volatile long caseStartedAt;
+    private String pytestCommand;
+    private Jfr.Event startupEvent;
+    private Jfr.Event collectionEvent;
+    private Jfr.TestEvent testEvent;
+
+    TestHandler(TestDescriptor rootTestDescriptor, EngineExecutionListener executionListener, Testenv testenv,
+                TestTimings timings, DescriptorIndex descriptorIndex, FailureBudget failureBudget)
     {
         this.rootTestDescriptor = rootTestDescriptor;
         this.executionListener = executionListener;
         this.testenv = testenv;
+        this.timings = timings;
+        this.descriptorIndex = descriptorIndex;
+        this.failureBudget = failureBudget;
+        this.outputCollector = new OutputCollector(testenv);
     }
 
     /**
@@ -65,10 +91,101 @@ final class TestHandler
     {
         logVerbose("TestHandler.processFinished");
 
+        outputCollector.flush();
+
+        PytestAbortedException aborted = failureBudget.exhausted();
+        if (aborted != null)
+        {
+            // Report the running and all not yet started tests as aborted.
+            TestExecutionResult result = TestExecutionResult.aborted(aborted);
+            if (runningTests.size() == 3)
+                doExecutionFinished(result, 2);
+            if (runningTests.size() == 2)
+            {
+                abortNotStarted(runningTests.get(1), result);
+                doExecutionFinished(result, 1);
+            }
+            if (runningTests.size() == 1)
+            {
+                abortNotStarted(rootTestDescriptor, result);
+                doExecutionFinished(result, 0);
+            }
+            return;
+        }
+
         // Report a failure (only propagated, when there are "running" test-descriptors)
         failure(PytestNoResultException.instance);
     }
 
+    /**
+     * Called right before a {@code pytest} process is launched.
+     */
+    void pytestLaunched(String command)
+    {
+        logVerbose("TestHandler.pytestLaunched");
+
+        pytestCommand = command;
+        startupEvent = Jfr.pytest("startup", command);
+    }
+
+    /**
+     * Called when a {@code pytest} process has exited. If {@code pytest} did not finish the test session, because
+     * it crashed, was killed or timed out, the running test case is reported as failed.
+     *
+     * @param exitCode exit code of {@code pytest} or {@code -1}, if not known
+     * @return whether {@code pytest} exited in the middle of the test session after making progress, so it can be
+     * relaunched for the tests that have not been run
+     */
+    boolean processExited(int exitCode)
+    {
+        logVerbose("TestHandler.processExited: %d (running: %d)", exitCode, runningTests.size());
+
+        if (runningTests.isEmpty() || isAborted())
+            return false;
+
+        boolean progress = finished.size() > finishedAtLaunch;
+        if (runningTests.size() == 3)
+        {
+            // The timeout starts in pytest slightly before the test case is started here
+            int timeout = testenv.getTestTimeout();
+            String message = timeout > 0 && runningCaseNanos() >= SECONDS.toNanos(timeout) - MILLISECONDS.toNanos(500)
+                             ? "Test timed out after " + timeout + " seconds and pytest has been terminated, see stderr for the Python stacks"
+                             : exitCode >= 0
+                               ? "pytest exited with code " + exitCode + " while running this test"
+                               : "pytest exited while running this test";
+            System.err.println(runningTests.get(2) + ": " + message);
+            doExecutionFinished(TestExecutionResult.failed(new PytestFailedException(message)), 2);
+            progress = true;
+        }
+        finishedAtLaunch = finished.size();
+        return progress;
+    }
+
+    /**
+     * Whether the given test has not been run yet, used to relaunch {@code pytest} for the remaining tests.
+     */
+    boolean isPending(TestDescriptor testDescriptor)
+    {
+        return !finished.containsKey(testDescriptor.getUniqueId());
+    }
+
+    /**
+     * Nanoseconds the running test case has been running or {@code 0}, if there is no running test case.
+     */
+    long runningCaseNanos()
+    {
+        long started = caseStartedAt;
+        return started != 0L ? System.nanoTime() - started : 0L;
+    }
+
+    /**
+     * Whether the failure budget is exhausted and the test run shall be aborted.
+     */
+    boolean isAborted()
+    {
+        return failureBudget.exhausted() != null;
+    }
+
     /**
      * Called for errors around {@code pytest} process handling.
      */
@@ -85,6 +202,13 @@ final class TestHandler
     void sessionStarted()
     {
         logVerbose("TestHandler.sessionStarted");
+
+        if (startupEvent != null)
+        {
+            startupEvent.commit();
+            startupEvent = null;
+        }
+        collectionEvent = Jfr.pytest("collection", pytestCommand);
     }
 
     /**
@@ -111,6 +235,23 @@ final class TestHandler
         }
     }
 
+    /**
+     * Called with the files covered by a finished test case, if test impact analysis is enabled.
+     */
+    void coveredFiles(String nodeid, String fspath, String domain, String files, boolean passed)
+    {
+        if (testenv.getImpact() != null)
+            testenv.getImpact().record(nodeid, fspath, domain, files, passed);
+    }
+
+    /**
+     * Called when a test case has registered output files.
+     */
+    void collectOutputs(String outputs)
+    {
+        outputCollector.collect(outputs, currentTestClass(), currentTestCase());
+    }
+
     void reportEntry(ReportEntry reportEntry)
     {
         if (runningTests.size() > 1)
@@ -126,20 +267,26 @@ final class TestHandler
     {
         logVerbose("TestHandler.executionStarted: %s / %s / %s", nodeid, fspath, domain);
 
+        if (collectionEvent != null)
+        {
+            collectionEvent.commit();
+            collectionEvent = null;
+        }
+
         PytestCollectEntry entry = PytestCollectEntry.parseFromPytest(nodeid, fspath, domain);
         if (entry == null)
             throw new IllegalArgumentException("Invalid nodeid/fspath/domain from pytest: " + nodeid + " / " + fspath + " / " + domain);
 
-        TestClassDescriptor testClass = rootTestDescriptor.findByUniqueId(TestClassDescriptor.idForClass(rootTestDescriptor, entry.getFullyQualifiedClassName()))
-                                                          .map(TestClassDescriptor.class::cast)
-                                                          .orElseGet(() -> registerTestDescriptor(TestClassDescriptor.createChild(rootTestDescriptor,
-                                                                                                                                  PytestClassInfo.fromCollectEntry(entry)),
-                                                                                                  rootTestDescriptor));
+        TestClassDescriptor testClass = descriptorIndex.testClass(entry.getFullyQualifiedClassName());
+        if (testClass == null)
+            testClass = registerTestDescriptor(TestClassDescriptor.createChild(rootTestDescriptor,
+                                                                               PytestClassInfo.fromCollectEntry(entry)),
+                                               rootTestDescriptor);
 
-        TestCaseDescriptor testCase = testClass.findByUniqueId(TestCaseDescriptor.idForCase(testClass, entry.getTest()))
-                                               .map(TestCaseDescriptor.class::cast)
-                                               .orElseGet(() -> registerTestDescriptor(TestCaseDescriptor.createChild(testClass, entry.getTest()),
-                                                                                       testClass));
+        TestCaseDescriptor testCase = descriptorIndex.testCase(testClass, entry.getTest());
+        if (testCase == null)
+            testCase = registerTestDescriptor(TestCaseDescriptor.createChild(testClass, entry.getTest()),
+                                              testClass);
 
         if (runningTests.size() == 3)
         {
@@ -178,6 +325,25 @@ final class TestHandler
         }
     }
 
+    /**
+     * Called with the durations of the setup, call and teardown phases of the running test case as reported by
+     * pytest.
+     */
+    void phaseDurations(long setupNanos, long callNanos, long teardownNanos)
+    {
+        if (testEvent != null)
+            testEvent.phases(setupNanos, callNanos, teardownNanos);
+    }
+
+    /**
+     * Called for each fixture set up for the running test case.
+     */
+    void fixtureSetup(String fixture, String scope, long nanos)
+    {
+        if (testenv.getFixtureCosts() != null)
+            testenv.getFixtureCosts().record(fixture, scope, nanos);
+    }
+
     /**
      * Called for a failed test case
      */
@@ -217,6 +383,7 @@ final class TestHandler
         logVerbose("TestHandler.registerTestDescriptor: %s", child.getUniqueId());
 
         parent.addChild(child);
+        descriptorIndex.add(child);
         executionListener.dynamicTestRegistered(child);
         return child;
     }
@@ -248,8 +415,17 @@ final class TestHandler
         if (testenv.isDebug())
             System.err.println("executionStarted " + testDescriptor);
         executionListener.executionStarted(testDescriptor);
+        failureBudget.started(testDescriptor.getUniqueId());
 
         runningTests.add(testDescriptor);
+        long now = System.nanoTime();
+        startedAt.put(testDescriptor.getUniqueId(), now);
+        if (testDescriptor instanceof TestCaseDescriptor)
+        {
+            caseStartedAt = now;
+            TestClassDescriptor classDescriptor = (TestClassDescriptor) runningTests.get(1);
+            testEvent = Jfr.test(classDescriptor.getTestClass(), ((TestCaseDescriptor) testDescriptor).getTest());
+        }
     }
 
     private void doExecutionFinished(TestExecutionResult result, int removeIndex)
@@ -260,11 +436,41 @@ final class TestHandler
 
         finished.compute(testDescriptor.getUniqueId(), (id, existing) -> existing == null ? 1 : 1 + existing);
 
+        Long started = startedAt.remove(testDescriptor.getUniqueId());
+        if (started != null)
+            timings.record(testDescriptor, System.nanoTime() - started);
+        if (testDescriptor instanceof TestCaseDescriptor)
+        {
+            caseStartedAt = 0L;
+            failureBudget.finished(result);
+            if (testEvent != null)
+            {
+                testEvent.commit(result.getStatus().name());
+                testEvent = null;
+            }
+        }
+
         if (testenv.isDebug())
             System.err.println("executionFinished " + testDescriptor + " " + result);
         executionListener.executionFinished(testDescriptor, result);
     }
 
+    /**
+     * Reports the children of {@code parent} that have not been started by any worker as aborted.
+     */
+    private void abortNotStarted(TestDescriptor parent, TestExecutionResult result)
+    {
+        for (TestDescriptor child : new ArrayList<>(parent.getChildren()))
+        {
+            if (failureBudget.wasStarted(child.getUniqueId()))
+                continue;
+            failureBudget.started(child.getUniqueId());
+            executionListener.executionStarted(child);
+            abortNotStarted(child, result);
+            executionListener.executionFinished(child, result);
+        }
+    }
+
     private void doReportEntry(ReportEntry reportEntry)
     {
         TestDescriptor current = runningTests.get(runningTests.size() - 1);
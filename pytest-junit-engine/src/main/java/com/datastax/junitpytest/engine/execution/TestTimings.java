@@ -0,0 +1,206 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.junitpytest.engine.TestCaseDescriptor;
+import com.datastax.junitpytest.engine.TestClassDescriptor;
+import org.junit.platform.engine.TestDescriptor;
+
+/**
+ * Durations of test classes and test cases of previous runs, persisted in a simple text file with one
+ * {@code <key> TAB <milliseconds>} line per test class ({@code <fully-qualified-class-name>}) and test case
+ * ({@code <fully-qualified-class-name>::<test>}).
+ * <p>
+ * Durations measured in this run are merged into the file by {@link #save()}, so concurrently running test JVMs
+ * do not lose each other's timings.
+ */
+final class TestTimings
+{
+    private final Path file;
+    private final Map<String, Long> previous;
+    private final Map<String, Long> current = new ConcurrentHashMap<>();
+    private final long averageClassMillis;
+    private final long averageCaseMillis;
+
+    private TestTimings(Path file, Map<String, Long> previous)
+    {
+        this.file = file;
+        this.previous = previous;
+
+        long classSum = 0, classCount = 0, caseSum = 0, caseCount = 0;
+        for (Map.Entry<String, Long> e : previous.entrySet())
+        {
+            if (e.getKey().contains("::"))
+            {
+                caseSum += e.getValue();
+                caseCount++;
+            }
+            else
+            {
+                classSum += e.getValue();
+                classCount++;
+            }
+        }
+        this.averageClassMillis = classCount > 0 ? Math.max(1L, classSum / classCount) : 1L;
+        this.averageCaseMillis = caseCount > 0 ? Math.max(1L, caseSum / caseCount) : 1L;
+    }
+
+    /**
+     * Loads the timings from {@code file}, which may be {@code null} to not use any timings at all.
+     */
+    static TestTimings load(Path file)
+    {
+        Map<String, Long> previous = new HashMap<>();
+        if (file != null)
+        {
+            try
+            {
+                read(file, previous);
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not read test timings from " + file + ": " + e);
+            }
+        }
+        return new TestTimings(file, previous);
+    }
+
+    /**
+     * Expected duration of the selected tests of the given test class in milliseconds. Unknown classes and tests
+     * are estimated using the average duration of all known classes and tests.
+     */
+    long expectedMillis(TestClassDescriptor testClass)
+    {
+        if (testClass.runWholeClass() || testClass.getChildren().isEmpty())
+        {
+            Long millis = previous.get(testClass.getTestClass());
+            if (millis != null)
+                return millis;
+            if (testClass.getChildren().isEmpty())
+                return averageClassMillis;
+        }
+
+        long sum = 0L;
+        for (TestDescriptor child : testClass.getChildren())
+        {
+            if (child instanceof TestCaseDescriptor)
+            {
+                Long millis = previous.get(key((TestCaseDescriptor) child));
+                sum += millis != null ? millis : averageCaseMillis;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Records the duration of a test class or test case.
+     */
+    void record(TestDescriptor testDescriptor, long durationNanos)
+    {
+        String key;
+        if (testDescriptor instanceof TestClassDescriptor)
+            key = ((TestClassDescriptor) testDescriptor).getTestClass();
+        else if (testDescriptor instanceof TestCaseDescriptor)
+            key = key((TestCaseDescriptor) testDescriptor);
+        else
+            return;
+        current.put(key, TimeUnit.NANOSECONDS.toMillis(durationNanos));
+    }
+
+    /**
+     * Merges the durations recorded in this run into the timings file.
+     */
+    void save() throws IOException
+    {
+        if (file == null || current.isEmpty())
+            return;
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        try (FileChannel lockChannel = FileChannel.open(dir.resolve(file.getFileName() + ".lock"),
+                                                        StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            // Released when the channel is closed
+            lockChannel.lock();
+            Map<String, Long> merged = new TreeMap<>();
+            read(file, merged);
+            merged.putAll(current);
+
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))
+            {
+                writer.write("# Durations of pytest test classes and test cases in milliseconds\n");
+                for (Map.Entry<String, Long> e : merged.entrySet())
+                {
+                    if (e.getKey().indexOf('\t') != -1 || e.getKey().indexOf('\n') != -1)
+                        continue;
+                    writer.write(e.getKey());
+                    writer.write('\t');
+                    writer.write(Long.toString(e.getValue()));
+                    writer.write('\n');
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static String key(TestCaseDescriptor testCase)
+    {
+        return testCase.getParentClass().getTestClass() + "::" + testCase.getTest();
+    }
+
+    private static void read(Path file, Map<String, Long> target) throws IOException
+    {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                int i = line.lastIndexOf('\t');
+                if (line.startsWith("#") || i == -1)
+                    continue;
+                try
+                {
+                    target.put(line.substring(0, i), Long.parseLong(line.substring(i + 1)));
+                }
+                catch (NumberFormatException e)
+                {
+                    // ignore broken lines
+                }
+            }
+        }
+        catch (NoSuchFileException e)
+        {
+            // no timings yet
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.Closeable;
+import java.util.function.BooleanSupplier;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Kills {@code pytest} when a test case runs longer than the {@link Testenv#getTestTimeout() test timeout} plus a
+ * grace period. The pytest-plugin dumps the Python stacks and exits by itself after the test timeout, the
+ * watchdog only kicks in, if that did not work, e.g. because the interpreter is stuck in native code.
+ */
+final class TestWatchdog implements Runnable, Closeable
+{
+    static final long GRACE_PERIOD_SECONDS = 10;
+
+    private final BooleanSupplier alive;
+    private final Runnable kill;
+    private final TestHandler testHandler;
+    private final long limitNanos;
+    private final Thread thread;
+
+    TestWatchdog(Process process, TestHandler testHandler, int timeoutSeconds)
+    {
+        this("pytest watchdog " + process, process::isAlive, process::destroyForcibly, testHandler, timeoutSeconds);
+    }
+
+    /**
+     * @param alive whether {@code pytest} is still running
+     * @param kill  kills {@code pytest}
+     */
+    TestWatchdog(String name, BooleanSupplier alive, Runnable kill, TestHandler testHandler, int timeoutSeconds)
+    {
+        this.alive = alive;
+        this.kill = kill;
+        this.testHandler = testHandler;
+        this.limitNanos = SECONDS.toNanos(timeoutSeconds + GRACE_PERIOD_SECONDS);
+        this.thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (alive.getAsBoolean())
+            {
+                if (testHandler.runningCaseNanos() > limitNanos)
+                {
+                    System.err.println("Test timed out and pytest did not exit, killing pytest");
+                    kill.run();
+                    return;
+                }
+                Thread.sleep(1000L);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // closed
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        thread.interrupt();
+    }
+}
@@ -24,12 +24,16 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 
+import com.datastax.junitpytest.common.IOUtil;
+import com.datastax.junitpytest.engine.TestImpact;
 import org.junit.platform.engine.ConfigurationParameters;
 
 class Testenv
 {
-    private final Path venvDir;
+    private Path venvDir;
+    private final Path venvCache;
     private final Path frozenRequirements;
+    private final Path wheelhouse;
     private final Path pytestOutputs;
     private final Path workingDirectory;
     private final String[] virtualenvExec;
@@ -37,6 +41,22 @@ class Testenv
     private final boolean verbose;
     private final boolean debug;
     private final boolean keepOutputForPassed;
+    private final boolean binaryFraming;
+    private final boolean socketEventChannel;
+    private final int spillThreshold;
+    private final IOUtil.OutputMode outputMode;
+    private final int outputThreads;
+    private final int workers;
+    private final int maxFailures;
+    private final double maxFailureRate;
+    private final int testTimeout;
+    private final boolean resume;
+    private final String sharding;
+    private final Path timingsFile;
+    private final TestImpact impact;
+    private final FixtureCosts fixtureCosts;
+    private final boolean daemon;
+    private final long daemonIdleTimeout;
     private final List<String> pipOptions;
     private final Map<String, String> pipEnv;
     private final List<String> pytestOptions;
@@ -51,11 +71,29 @@ class Testenv
         this.verbose = "true".equalsIgnoreCase(configurationParameters.get("pytest.verbose").orElse("false"));
         this.debug = "true".equalsIgnoreCase(configurationParameters.get("pytest.debug").orElse("false"));
         this.keepOutputForPassed = "true".equalsIgnoreCase(configurationParameters.get("pytest.keepOutputForPassed").orElse("false"));
+        this.binaryFraming = "binary".equalsIgnoreCase(configurationParameters.get("pytest.framing").orElse("binary"));
+        this.workers = Integer.parseInt(configurationParameters.get("pytest.workers").orElse("1"));
+        this.maxFailures = Integer.parseInt(configurationParameters.get("pytest.maxFailures").orElse("0"));
+        this.maxFailureRate = Double.parseDouble(configurationParameters.get("pytest.maxFailureRate").orElse("0"));
+        this.testTimeout = Integer.parseInt(configurationParameters.get("pytest.testTimeout").orElse("0"));
+        this.resume = "true".equalsIgnoreCase(configurationParameters.get("pytest.resume").orElse("false"));
+        this.daemon = "true".equalsIgnoreCase(configurationParameters.get("pytest.daemon").orElse("false"));
+        this.daemonIdleTimeout = Long.parseLong(configurationParameters.get("pytest.daemon.idleTimeout").orElse("900"));
+        this.sharding = configurationParameters.get("pytest.sharding").orElse("duration");
+        this.socketEventChannel = "socket".equalsIgnoreCase(configurationParameters.get("pytest.eventChannel").orElse("stdout"));
+        this.outputMode = IOUtil.OutputMode.parse(configurationParameters.get("pytest.outputMode").orElse("copy"));
+        this.outputThreads = Integer.parseInt(configurationParameters.get("pytest.outputThreads").orElse("2"));
+        this.spillThreshold = configurationParameters.get("pytest.spillThreshold").map(Integer::parseInt).orElse(InboundHandler.DEFAULT_SPILL_THRESHOLD);
 
         this.venvDir = pathConfig.apply("pytest.venv");
+        this.venvCache = configurationParameters.get("pytest.venvCache").map(Paths::get).orElse(null);
         this.frozenRequirements = pathConfig.apply("pytest.frozenRequirements");
+        this.wheelhouse = configurationParameters.get("pytest.wheelhouse").map(Paths::get).orElse(null);
         this.pytestOutputs = pathConfig.apply("pytest.pytestOutputs");
         this.workingDirectory = pathConfig.apply("pytest.cwd");
+        this.timingsFile = configurationParameters.get("pytest.timings").map(Paths::get).orElse(null);
+        this.impact = TestImpact.load(configurationParameters);
+        this.fixtureCosts = configurationParameters.get("pytest.fixtureReport").map(Paths::get).map(FixtureCosts::new).orElse(null);
 
         this.virtualenvExec = config.apply("pytest.exec.virtualenv").split(",");
         this.pythonExec = config.apply("pytest.exec.python").split(",");
@@ -97,16 +135,55 @@ class Testenv
         return venvDir;
     }
 
+    /**
+     * Machine-wide cache directory for virtual environments or {@code null}, if not configured.
+     */
+    Path getVenvCache()
+    {
+        return venvCache;
+    }
+
+    /**
+     * Use the given virtual environment instead of the configured one, must be called before any other
+     * component uses the virtual environment.
+     */
+    void useVenvDir(Path venvDir)
+    {
+        this.venvDir = venvDir;
+    }
+
     Path getFrozenRequirements()
     {
         return frozenRequirements;
     }
 
+    /**
+     * Directory with the wheels of the frozen requirements or {@code null}, if not configured.
+     */
+    Path getWheelhouse()
+    {
+        return wheelhouse;
+    }
+
     Path getPytestOutputs()
     {
         return pytestOutputs;
     }
 
+    IOUtil.OutputMode getOutputMode()
+    {
+        return outputMode;
+    }
+
+    /**
+     * Number of threads collecting the output files of tests in the background, {@code 0} to collect them
+     * synchronously.
+     */
+    int getOutputThreads()
+    {
+        return outputThreads;
+    }
+
     Path getWorkingDirectory()
     {
         return workingDirectory;
@@ -142,6 +219,105 @@ class Testenv
         return keepOutputForPassed;
     }
 
+    boolean isBinaryFraming()
+    {
+        return binaryFraming;
+    }
+
+    int getWorkers()
+    {
+        return workers;
+    }
+
+    /**
+     * Number of failed test cases after which the test run is aborted, {@code 0} for no limit.
+     */
+    int getMaxFailures()
+    {
+        return maxFailures;
+    }
+
+    /**
+     * Rate of failed test cases ({@code 0} to {@code 1}) above which the test run is aborted, {@code 0} for no limit.
+     */
+    double getMaxFailureRate()
+    {
+        return maxFailureRate;
+    }
+
+    /**
+     * Maximum duration of a single test case in seconds, after which pytest is terminated, {@code 0} for no limit.
+     */
+    int getTestTimeout()
+    {
+        return testTimeout;
+    }
+
+    /**
+     * Whether pytest is relaunched for the remaining tests, after it crashed, was killed or timed out.
+     */
+    boolean isResume()
+    {
+        return resume;
+    }
+
+    boolean isDurationSharding()
+    {
+        return "duration".equalsIgnoreCase(sharding);
+    }
+
+    /**
+     * File with the test durations of previous runs or {@code null}, if not configured.
+     */
+    Path getTimingsFile()
+    {
+        return timingsFile;
+    }
+
+    /**
+     * Test impact analysis or {@code null}, if not enabled. When enabled, the covered files of each test are
+     * recorded.
+     */
+    TestImpact getImpact()
+    {
+        return impact;
+    }
+
+    /**
+     * Aggregated setup costs of the pytest fixtures or {@code null}, if no report is configured.
+     */
+    FixtureCosts getFixtureCosts()
+    {
+        return fixtureCosts;
+    }
+
+    boolean isDaemon()
+    {
+        return daemon;
+    }
+
+    /**
+     * Idle timeout of the pytest daemon in seconds.
+     */
+    long getDaemonIdleTimeout()
+    {
+        return daemonIdleTimeout;
+    }
+
+    boolean isSocketEventChannel()
+    {
+        return socketEventChannel;
+    }
+
+    /**
+     * Size in bytes above which a block of a message from the pytest-plugin is written to a temporary file
+     * instead of being kept in memory.
+     */
+    int getSpillThreshold()
+    {
+        return spillThreshold;
+    }
+
     List<String> getPipOptions()
     {
         return pipOptions;
@@ -0,0 +1,89 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import org.junit.platform.engine.EngineExecutionListener;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.reporting.ReportEntry;
+
+/**
+ * {@link EngineExecutionListener} shared by the {@link TestHandler}s of all concurrently running {@code pytest}
+ * workers.
+ * <p>
+ * Each {@link TestHandler} reports the start and end of the root test-descriptor, but the root must only be
+ * reported once. Those events are swallowed here, the root is reported via {@link #rootStarted()} and
+ * {@link #rootFinished(Exception)}, with the first non-successful result of any worker.
+ */
+final class WorkerExecutionListener implements EngineExecutionListener
+{
+    private final TestDescriptor rootTestDescriptor;
+    private final EngineExecutionListener delegate;
+    private TestExecutionResult rootResult;
+
+    WorkerExecutionListener(TestDescriptor rootTestDescriptor, EngineExecutionListener delegate)
+    {
+        this.rootTestDescriptor = rootTestDescriptor;
+        this.delegate = delegate;
+    }
+
+    synchronized void rootStarted()
+    {
+        delegate.executionStarted(rootTestDescriptor);
+    }
+
+    synchronized void rootFinished(Exception failure)
+    {
+        TestExecutionResult result = rootResult;
+        if (failure != null && result == null)
+            result = TestExecutionResult.failed(failure);
+        delegate.executionFinished(rootTestDescriptor, result != null ? result : TestExecutionResult.successful());
+    }
+
+    @Override
+    public synchronized void dynamicTestRegistered(TestDescriptor testDescriptor)
+    {
+        delegate.dynamicTestRegistered(testDescriptor);
+    }
+
+    @Override
+    public synchronized void executionSkipped(TestDescriptor testDescriptor, String reason)
+    {
+        delegate.executionSkipped(testDescriptor, reason);
+    }
+
+    @Override
+    public synchronized void executionStarted(TestDescriptor testDescriptor)
+    {
+        if (testDescriptor != rootTestDescriptor)
+            delegate.executionStarted(testDescriptor);
+    }
+
+    @Override
+    public synchronized void executionFinished(TestDescriptor testDescriptor, TestExecutionResult testExecutionResult)
+    {
+        if (testDescriptor != rootTestDescriptor)
+            delegate.executionFinished(testDescriptor, testExecutionResult);
+        else if (rootResult == null && testExecutionResult.getStatus() != TestExecutionResult.Status.SUCCESSFUL)
+            rootResult = testExecutionResult;
+    }
+
+    @Override
+    public synchronized void reportingEntryPublished(TestDescriptor testDescriptor, ReportEntry entry)
+    {
+        delegate.reportingEntryPublished(testDescriptor, entry);
+    }
+}
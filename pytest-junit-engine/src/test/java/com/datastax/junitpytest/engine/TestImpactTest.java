@@ -0,0 +1,134 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.engine.ConfigurationParameters;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.EngineDescriptor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestImpactTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    public void selectAffectedTests() throws IOException
+    {
+        write("test_a.py", "a");
+        write("test_b.py", "b");
+        write("helper.py", "helper");
+        Map<String, String> config = new HashMap<>();
+        config.put("pytest.impact", "select");
+        config.put("pytest.impactFile", dir.resolve("impact.txt").toString());
+        config.put("pytest.cwd", dir.toString());
+
+        // nothing recorded yet, all tests selected
+        TestImpact impact = TestImpact.load(parameters(config));
+        assertThat(selected(impact)).isEqualTo("test_a.A::test_1,test_a.A::test_2,test_b.B::test_1");
+        impact.record("test_a.py::A::test_1", "test_a.py", "A.test_1", "test_a.py\nhelper.py", true);
+        impact.record("test_a.py::A::test_2", "test_a.py", "A.test_2", "test_a.py", false);
+        impact.record("test_b.py::B::test_1", "test_b.py", "B.test_1", "test_b.py", true);
+        impact.save();
+
+        // only the failed test
+        assertThat(selected(TestImpact.load(parameters(config)))).isEqualTo("test_a.A::test_2");
+
+        // tests covering the changed file
+        write("helper.py", "changed");
+        assertThat(selected(TestImpact.load(parameters(config)))).isEqualTo("test_a.A::test_1,test_a.A::test_2");
+
+        // different pytest options, all tests selected
+        config.put("pytest.option.0", "-x");
+        assertThat(selected(TestImpact.load(parameters(config)))).isEqualTo("test_a.A::test_1,test_a.A::test_2,test_b.B::test_1");
+
+        config.put("pytest.impact", "off");
+        assertThat(TestImpact.load(parameters(config))).isNull();
+    }
+
+    private static String selected(TestImpact impact)
+    {
+        EngineDescriptor root = new EngineDescriptor(UniqueId.forEngine("pytest"), "pytest");
+        testClass(root, "test_a.py", "A", "test_1", "test_2");
+        testClass(root, "test_b.py", "B", "test_1");
+        impact.select(root);
+        return root.getChildren()
+                   .stream()
+                   .flatMap(c -> c.getChildren().stream())
+                   .map(TestImpactTest::key)
+                   .collect(Collectors.joining(","));
+    }
+
+    private static String key(TestDescriptor testCase)
+    {
+        TestCaseDescriptor caseDescriptor = (TestCaseDescriptor) testCase;
+        return caseDescriptor.getParentClass().getTestClass() + "::" + caseDescriptor.getTest();
+    }
+
+    private static void testClass(EngineDescriptor root, String file, String simpleClassName, String... tests)
+    {
+        PytestClassInfo info = new PytestClassInfo(file, file.replace(".py", "") + '.' + simpleClassName, simpleClassName);
+        TestClassDescriptor classDescriptor = TestClassDescriptor.createChild(root, info);
+        root.addChild(classDescriptor);
+        for (String test : tests)
+        {
+            info.addTest(test, test);
+            classDescriptor.addChild(TestCaseDescriptor.createChild(classDescriptor, test));
+        }
+    }
+
+    private void write(String file, String content) throws IOException
+    {
+        Files.write(dir.resolve(file), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ConfigurationParameters parameters(Map<String, String> config)
+    {
+        return new ConfigurationParameters()
+        {
+            @Override
+            public Optional<String> get(String key)
+            {
+                return Optional.ofNullable(config.get(key));
+            }
+
+            @Override
+            public Optional<Boolean> getBoolean(String key)
+            {
+                return get(key).map(Boolean::valueOf);
+            }
+
+            @Override
+            public int size()
+            {
+                return config.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.TestExecutionResult;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FailureBudgetTest
+{
+    private static final TestExecutionResult PASSED = TestExecutionResult.successful();
+    private static final TestExecutionResult FAILED = TestExecutionResult.failed(new AssertionError());
+
+    @Test
+    public void maxFailures()
+    {
+        FailureBudget budget = new FailureBudget(3, 0d);
+        budget.finished(FAILED);
+        budget.finished(PASSED);
+        budget.finished(FAILED);
+        // below the limit
+        assertThat(budget.exhausted()).isNull();
+
+        // at the limit
+        budget.finished(FAILED);
+        assertThat(budget.exhausted()).hasMessage("Not run, failure budget exhausted: 3 of 4 tests failed (pytest.maxFailures=3)");
+
+        // the reason does not change afterwards
+        budget.finished(FAILED);
+        assertThat(budget.exhausted()).hasMessageContaining("3 of 4 tests failed");
+    }
+
+    @Test
+    public void maxFailureRate()
+    {
+        FailureBudget budget = new FailureBudget(0, 0.5d);
+        // a high rate before MIN_TESTS_FOR_FAILURE_RATE test cases does not count
+        for (int i = 0; i < FailureBudget.MIN_TESTS_FOR_FAILURE_RATE - 1; i++)
+            budget.finished(FAILED);
+        assertThat(budget.exhausted()).isNull();
+
+        budget.finished(FAILED);
+        assertThat(budget.exhausted()).hasMessage("Not run, failure budget exhausted: 20 of 20 tests failed (pytest.maxFailureRate=0.5)");
+
+        // exactly at the rate is still within the budget
+        budget = new FailureBudget(0, 0.5d);
+        for (int i = 0; i < FailureBudget.MIN_TESTS_FOR_FAILURE_RATE; i++)
+            budget.finished(i % 2 == 0 ? FAILED : PASSED);
+        assertThat(budget.exhausted()).isNull();
+        budget.finished(FAILED);
+        assertThat(budget.exhausted()).hasMessageContaining("11 of 21 tests failed");
+    }
+
+    @Test
+    public void noFailures()
+    {
+        FailureBudget budget = new FailureBudget(1, 0.1d);
+        for (int i = 0; i < 100; i++)
+            budget.finished(PASSED);
+        assertThat(budget.exhausted()).isNull();
+
+        // no budget configured
+        budget = new FailureBudget(0, 0d);
+        for (int i = 0; i < 100; i++)
+            budget.finished(FAILED);
+        assertThat(budget.exhausted()).isNull();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FixtureCostsTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    public void mergeAndSortByTotal() throws IOException
+    {
+        Path report = dir.resolve("fixtures.txt");
+
+        FixtureCosts first = new FixtureCosts(report);
+        first.record("tmpdir", "function", 2_000_000L);
+        first.record("tmpdir", "function", 3_000_000L);
+        first.record("cluster", "module", 4_000_000L);
+        first.save();
+
+        // another test JVM of the same task
+        FixtureCosts second = new FixtureCosts(report);
+        second.record("cluster", "module", 1_500_000L);
+        second.record("db", "session", 250_000L);
+        second.save();
+
+        assertThat(Files.readAllLines(report)).containsExactly(
+                "# Setup costs of pytest fixtures: total milliseconds, setups, max milliseconds, scope, fixture",
+                "5.500\t2\t4.000\tmodule\tcluster",
+                "5.000\t2\t3.000\tfunction\ttmpdir",
+                "0.250\t1\t0.250\tsession\tdb");
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class InboundHandlerTest
+{
+    @Test
+    public void textFraming() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map<String, String> blocks : testBlocks())
+            text(out, "runtest_logfinish", blocks);
+        text(out, "sessionfinish", new LinkedHashMap<>());
+
+        verifyMessages(out.toByteArray(), 65536);
+        verifyMessages(out.toByteArray(), 16);
+        verifySpilledMessages(out.toByteArray());
+    }
+
+    @Test
+    public void binaryFraming() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "*** BINARY/1\n".getBytes(StandardCharsets.UTF_8));
+        List<String> names = new ArrayList<>();
+        for (Map<String, String> blocks : testBlocks())
+            binary(out, names, "runtest_logfinish", blocks);
+        binary(out, names, "sessionfinish", new LinkedHashMap<>());
+
+        verifyMessages(out.toByteArray(), 65536);
+        verifyMessages(out.toByteArray(), 16);
+        verifySpilledMessages(out.toByteArray());
+    }
+
+    @Test
+    public void endOfStream() throws IOException
+    {
+        assertThat(new InboundHandler().readMessage(channel(new byte[0]))).isNull();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        text(out, "runtest_logfinish", testBlocks().get(0));
+        byte[] full = out.toByteArray();
+        byte[] truncated = new byte[full.length - 3];
+        System.arraycopy(full, 0, truncated, 0, truncated.length);
+
+        assertThatThrownBy(() -> new InboundHandler().readMessage(channel(truncated))).isInstanceOf(EOFException.class);
+    }
+
+    @Test
+    public void illegalInput()
+    {
+        assertThatThrownBy(() -> new InboundHandler().readMessage(channel("garbage\n".getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Expected '*** START/...', but got 'garbage'");
+    }
+
+    private static void verifyMessages(byte[] stream, int bufferSize) throws IOException
+    {
+        InboundHandler handler = new InboundHandler(bufferSize);
+        ReadableByteChannel input = channel(stream);
+        for (Map<String, String> blocks : testBlocks())
+        {
+            Message message = handler.readMessage(input);
+            assertThat(message).isInstanceOf(LogFinishMessage.class);
+            assertThat(message.blockMap).hasSameSizeAs(blocks);
+            blocks.forEach((k, v) -> assertThat(message.block(k)).isEqualTo(v));
+        }
+        assertThat(handler.readMessage(input)).isInstanceOf(SessionFinishMessage.class);
+        assertThat(handler.readMessage(input)).isNull();
+    }
+
+    private static void verifySpilledMessages(byte[] stream) throws IOException
+    {
+        InboundHandler handler = new InboundHandler(64, 1000);
+        ReadableByteChannel input = channel(stream);
+        for (Map<String, String> blocks : testBlocks())
+        {
+            Message message = handler.readMessage(input);
+            blocks.forEach((k, v) -> {
+                Block block = message.blockMap.get(k);
+                assertThat(block).isInstanceOf(v.getBytes(StandardCharsets.UTF_8).length > 1000 ? FileBlock.class : BufferBlock.class);
+                assertThat(block.asString()).isEqualTo(v);
+            });
+            message.release();
+        }
+        assertThat(handler.buffer().length).isLessThanOrEqualTo(4096);
+        assertThat(handler.readMessage(input)).isInstanceOf(SessionFinishMessage.class);
+        assertThat(handler.readMessage(input)).isNull();
+    }
+
+    private static List<Map<String, String>> testBlocks()
+    {
+        List<Map<String, String>> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            Map<String, String> blocks = new LinkedHashMap<>();
+            blocks.put("nodeid", "some_test.py::TestSome::test_foo[" + i + "]");
+            blocks.put("result_category", "passed");
+            blocks.put("empty", "");
+            StringBuilder captured = new StringBuilder();
+            for (int l = 0; l < i * 200; l++)
+                captured.append("line with some non-ASCII \u00e4\u00f6\u00fc \u20ac #").append(l).append('\n');
+            blocks.put("Captured stdout call", captured.toString());
+            messages.add(blocks);
+        }
+        return messages;
+    }
+
+    private static ReadableByteChannel channel(byte[] data)
+    {
+        return Channels.newChannel(new ByteArrayInputStream(data));
+    }
+
+    private static void text(ByteArrayOutputStream out, String message, Map<String, String> blocks)
+    {
+        write(out, ("*** START/" + message + "/" + blocks.size() + "\n").getBytes(StandardCharsets.UTF_8));
+        blocks.forEach((k, v) -> {
+            byte[] utf = v.getBytes(StandardCharsets.UTF_8);
+            write(out, (k + ": " + utf.length + "\n").getBytes(StandardCharsets.UTF_8));
+            write(out, utf);
+            write(out, "\n".getBytes(StandardCharsets.UTF_8));
+        });
+        write(out, "*** END\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void binary(ByteArrayOutputStream out, List<String> names, String message, Map<String, String> blocks)
+    {
+        int messageId = binaryName(out, names, message);
+        List<Integer> blockIds = new ArrayList<>();
+        blocks.keySet().forEach(k -> blockIds.add(binaryName(out, names, k)));
+
+        out.write(InboundHandler.FRAME_MESSAGE);
+        varint(out, messageId);
+        varint(out, blocks.size());
+        int i = 0;
+        for (String value : blocks.values())
+        {
+            byte[] utf = value.getBytes(StandardCharsets.UTF_8);
+            varint(out, blockIds.get(i++));
+            varint(out, utf.length);
+            write(out, utf);
+        }
+    }
+
+    private static int binaryName(ByteArrayOutputStream out, List<String> names, String name)
+    {
+        int id = names.indexOf(name);
+        if (id == -1)
+        {
+            id = names.size();
+            names.add(name);
+            byte[] utf = name.getBytes(StandardCharsets.UTF_8);
+            out.write(InboundHandler.FRAME_NAME);
+            varint(out, utf.length);
+            write(out, utf);
+        }
+        return id;
+    }
+
+    private static void varint(ByteArrayOutputStream out, int value)
+    {
+        while ((value & ~0x7f) != 0)
+        {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes)
+    {
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.datastax.junitpytest.engine.PytestClassInfo;
+import com.datastax.junitpytest.engine.TestCaseDescriptor;
+import com.datastax.junitpytest.engine.TestClassDescriptor;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.EngineDescriptor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PytestArgumentPlannerTest
+{
+    private final EngineDescriptor root = new EngineDescriptor(UniqueId.forEngine("pytest"), "pytest");
+
+    @Test
+    public void collapseSelections()
+    {
+        TestClassDescriptor a = testClass("mod_a.py", "A", 2, "test_1", "test_2[x]", "test_2[y]");
+        TestClassDescriptor b = testClass("mod_a.py", "B", 2, "test_1");
+        TestClassDescriptor c = testClass("mod_c.py", "C", 2, "test_1", "test_2[x]", "test_2[y]");
+        TestClassDescriptor d = testClass("mod_d.py", "D", 1, "test_1", "test_2[x]", "test_2[y]");
+
+        // whole module
+        select(a, "test_1", "test_2[x]", "test_2[y]");
+        select(b, "test_1");
+        // whole class, other class of the module not selected
+        select(c, "test_1", "test_2[x]", "test_2[y]");
+        // whole method and single test
+        select(d, "test_2[x]", "test_2[y]");
+
+        assertThat(PytestArgumentPlanner.plan(Arrays.asList(a, b, c, d))).containsExactly("mod_a.py",
+                                                                                          "mod_c.py::C",
+                                                                                          "mod_d.py::D::test_2");
+
+        TestClassDescriptor e = testClass("mod_e.py", "E", 1, "test_1", "test_2[x]", "test_2[y]");
+        select(e, "test_1", "test_2[y]");
+        assertThat(PytestArgumentPlanner.plan(Arrays.asList(e))).containsExactly("mod_e.py::E::test_1",
+                                                                                 "mod_e.py::E::test_2[y]");
+    }
+
+    @Test
+    public void planRemainingTests()
+    {
+        TestClassDescriptor a = testClass("mod_a.py", "A", 1, "test_1", "test_2[x]", "test_2[y]");
+        TestClassDescriptor b = testClass("mod_b.py", "B", 1, "test_1");
+        select(a, "test_1", "test_2[x]", "test_2[y]");
+        select(b, "test_1");
+
+        // test_1 and test_2[x] of A have been run
+        List<String> run = Arrays.asList("test_1", "test_2[x]");
+        assertThat(PytestArgumentPlanner.plan(Arrays.asList(a, b),
+                                              t -> t.getParent().get() != a || !run.contains(((TestCaseDescriptor) t).getTest())))
+                .containsExactly("mod_a.py::A::test_2[y]", "mod_b.py");
+    }
+
+    private TestClassDescriptor testClass(String file, String simpleClassName, int moduleClassCount, String... tests)
+    {
+        PytestClassInfo info = new PytestClassInfo(file, file.replace(".py", "") + '.' + simpleClassName, simpleClassName);
+        for (String test : tests)
+            info.addTest(test.replaceAll("\\[.*", ""), test);
+        info.setModuleClassCount(moduleClassCount);
+        TestClassDescriptor classDescriptor = TestClassDescriptor.createChild(root, info);
+        root.addChild(classDescriptor);
+        return classDescriptor;
+    }
+
+    private static void select(TestClassDescriptor classDescriptor, String... tests)
+    {
+        for (String test : tests)
+            classDescriptor.addChild(TestCaseDescriptor.createChild(classDescriptor, test));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.junitpytest.engine.execution;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import com.datastax.junitpytest.engine.PytestClassInfo;
+import com.datastax.junitpytest.engine.TestCaseDescriptor;
+import com.datastax.junitpytest.engine.TestClassDescriptor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.engine.ConfigurationParameters;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.EngineDescriptor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestTimingsTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    public void expectedMillis() throws IOException
+    {
+        // averages: 500ms per test class, 300ms per test case
+        TestTimings timings = timings("test_a.A\t1000",
+                                      "test_b.B\t0",
+                                      "test_a.A::test_1\t400",
+                                      "test_a.A::test_2\t200");
+        EngineDescriptor root = root();
+
+        // whole class
+        assertThat(timings.expectedMillis(testClass(root, "test_a.py", "A", new String[]{ "test_1", "test_2" }, "test_1", "test_2")))
+                .isEqualTo(1000L);
+        // partial selection, with an unknown test case
+        assertThat(timings.expectedMillis(testClass(root, "test_a.py", "A", new String[]{ "test_1", "test_2", "test_3" }, "test_1")))
+                .isEqualTo(400L);
+        assertThat(timings.expectedMillis(testClass(root, "test_a.py", "A", new String[]{ "test_1", "test_2", "test_3" }, "test_2", "test_3")))
+                .isEqualTo(500L);
+        // unknown class, by its test cases or the average test class without test cases
+        assertThat(timings.expectedMillis(testClass(root, "test_c.py", "C", new String[]{ "test_1", "test_2" }, "test_1", "test_2")))
+                .isEqualTo(600L);
+        assertThat(timings.expectedMillis(testClass(root, "test_c.py", "C", new String[0])))
+                .isEqualTo(500L);
+    }
+
+    @Test
+    public void durationSharding() throws IOException
+    {
+        TestTimings timings = timings("test_a.A\t1000",
+                                      "test_b.B\t500",
+                                      "test_c.C\t300",
+                                      "test_d.D\t200");
+        EngineDescriptor root = root();
+        for (String name : Arrays.asList("D", "A", "C", "B"))
+            root.addChild(testClass(root, "test_" + name.toLowerCase() + ".py", name, new String[]{ "test_1" }, "test_1"));
+
+        // longest first, each to the worker with the lowest load, in discovery order within each worker
+        assertThat(shards(PytestExecutor.shardTestClasses(testenv(2, "duration"), timings, root)))
+                .containsExactly("A", "D,C,B");
+        // more workers than test classes
+        assertThat(shards(PytestExecutor.shardTestClasses(testenv(6, "duration"), timings, root)))
+                .containsExactly("A", "B", "C", "D");
+    }
+
+    @Test
+    public void roundRobinSharding() throws IOException
+    {
+        EngineDescriptor root = root();
+        for (String name : Arrays.asList("D", "A", "C", "B", "E"))
+            root.addChild(testClass(root, "test_" + name.toLowerCase() + ".py", name, new String[]{ "test_1" }, "test_1"));
+
+        assertThat(shards(PytestExecutor.shardTestClasses(testenv(2, "round-robin"), timings("test_a.A\t1000"), root)))
+                .containsExactly("D,C,E", "A,B");
+    }
+
+    @Test
+    public void shardingWithoutTimings()
+    {
+        // every test case is expected to take the same time
+        EngineDescriptor root = root();
+        root.addChild(testClass(root, "test_a.py", "A", new String[]{ "test_1", "test_2", "test_3" }, "test_1", "test_2", "test_3"));
+        root.addChild(testClass(root, "test_b.py", "B", new String[]{ "test_1", "test_2" }, "test_1", "test_2"));
+        root.addChild(testClass(root, "test_c.py", "C", new String[]{ "test_1" }, "test_1"));
+        assertThat(shards(PytestExecutor.shardTestClasses(testenv(2, "duration"), TestTimings.load(null), root)))
+                .containsExactly("A", "B,C");
+    }
+
+    private TestTimings timings(String... lines) throws IOException
+    {
+        Path file = dir.resolve("timings.txt");
+        Files.write(file, Arrays.asList(lines));
+        return TestTimings.load(file);
+    }
+
+    private static EngineDescriptor root()
+    {
+        return new EngineDescriptor(UniqueId.forEngine("pytest"), "pytest");
+    }
+
+    private static TestClassDescriptor testClass(EngineDescriptor root, String file, String simpleClassName, String[] collected, String... selected)
+    {
+        PytestClassInfo info = new PytestClassInfo(file, file.replace(".py", "") + '.' + simpleClassName, simpleClassName);
+        for (String test : collected)
+            info.addTest(test, test);
+        TestClassDescriptor classDescriptor = TestClassDescriptor.createChild(root, info);
+        for (String test : selected)
+            classDescriptor.addChild(TestCaseDescriptor.createChild(classDescriptor, test));
+        return classDescriptor;
+    }
+
+    private static List<String> shards(List<List<TestClassDescriptor>> shards)
+    {
+        return shards.stream()
+                     .map(shard -> shard.stream()
+                                        .map(c -> c.getTestClass().substring(c.getTestClass().lastIndexOf('.') + 1))
+                                        .collect(Collectors.joining(",")))
+                     .collect(Collectors.toList());
+    }
+
+    private Testenv testenv(int workers, String sharding)
+    {
+        Map<String, String> config = new HashMap<>();
+        config.put("pytest.workers", Integer.toString(workers));
+        config.put("pytest.sharding", sharding);
+        for (String key : Arrays.asList("pytest.venv", "pytest.frozenRequirements", "pytest.pytestOutputs", "pytest.cwd"))
+            config.put(key, dir.toString());
+        config.put("pytest.exec.virtualenv", "virtualenv");
+        config.put("pytest.exec.python", "python3");
+        return new Testenv(new ConfigurationParameters()
+        {
+            @Override
+            public Optional<String> get(String key)
+            {
+                return Optional.ofNullable(config.get(key));
+            }
+
+            @Override
+            public Optional<Boolean> getBoolean(String key)
+            {
+                return get(key).map(Boolean::parseBoolean);
+            }
+
+            @Override
+            public int size()
+            {
+                return config.size();
+            }
+        });
+    }
+}
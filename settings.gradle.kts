@@ -194,5 +194,7 @@ include("pytest-junit-engine")
 include("common")
 include("junit-pytest-plugin")
 include("integration-test")
+include("load-test")
+include("benchmarks")
 include("gradle-test-agent:jdk11and8")
 include("gradle-test-agent:python3")